@@ -11,12 +11,9 @@ import zju.cst.aces.util.ClassNameProcessor;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -160,7 +157,7 @@ public class Task {
         List<String> classPaths = ProjectParser.scanSourceDirectory(project);
 
         try {
-            config.setJobCount(new AtomicInteger(Counter.countMethod(config.getTmpOutput())));
+            config.setJobCount(new AtomicInteger(Counter.countMethod(config)));
         } catch (IOException e) {
             log.error("Error when counting methods: " + e);
         }
@@ -173,8 +170,7 @@ public class Task {
                 try {
                     String fullClassName = getFullClassName(config, className);
                     log.info(String.format("\n==========================\n[%s] Generating tests for class < ",config.pluginSign) + className + " > ...");
-                    ClassInfo info = AbstractRunner.getClassInfo(config, fullClassName);
-                    if (!Counter.filter(info)) {
+                    if (config.getJobManifest().get(fullClassName) == null) {
                         config.getLogger().info("Skip class: " + classPath);
                         continue;
                     }
@@ -187,6 +183,25 @@ public class Task {
         }
 
         log.info(String.format("\n==========================\n[%s] Generation finished",config.pluginSign));
+        log.debug("Parse info cache >>> " + config.getInfoCache().getStats());
+        if (config.getResponseCache() != null) {
+            log.info("Response cache >>> " + config.getResponseCache().getStats());
+        }
+        if (config.getMockLlmStub() != null) {
+            log.info("Mock LLM >>> " + config.getMockLlmStub().getStats());
+        }
+        if (config.endpointRouter != null && config.endpointRouter.size() > 1) {
+            log.info("Endpoints >>> " + config.endpointRouter.getStats());
+        }
+        // the pool exists only if a request was sent
+        if (config.apiKeyPool != null) {
+            log.info("Api key usage >>> " + config.apiKeyPool.getStats());
+            try {
+                config.apiKeyPool.save(config.getTmpOutput().resolve("apiKeyUsage.json"), config.getGSON());
+            } catch (IOException e) {
+                log.warn("Failed to save the api key usage: " + e);
+            }
+        }
 
         Path testOutPutPath = config.getTestOutput();
         classNameProcessor.processJavaFiles(testOutPutPath);
@@ -204,8 +219,7 @@ public class Task {
                     try {
                         String fullClassName = getFullClassName(config, className);
                         log.info(String.format("\n==========================\n[%s] Generating tests for class < ",config.pluginSign) + className + " > ...");
-                        ClassInfo info = AbstractRunner.getClassInfo(config, fullClassName);
-                        if (!Counter.filter(info)) {
+                        if (config.getJobManifest().get(fullClassName) == null) {
                             return "Skip class: " + classPath;
                         }
                         runner.runClass(fullClassName);
@@ -241,14 +255,13 @@ public class Task {
         if (isFullName(name)) {
             return name;
         }
-        Path classMapPath = config.getClassNameMapPath();
-        Map<String, List<String>> classMap = config.getGSON().fromJson(new String(Files.readAllBytes(classMapPath), StandardCharsets.UTF_8), Map.class);
-        if (classMap.containsKey(name)) {
-            if (classMap.get(name).size() > 1) {
-                throw new RuntimeException((String.format("[%s] Multiple classes Named ",config.pluginSign)) + name + ": " + classMap.get(name)
-                        + " Please use full qualified name!");
-            }
-            return classMap.get(name).get(0);
+        List<String> fullClassNames = config.getClassNameIndex().get(name);
+        if (fullClassNames.size() > 1) {
+            throw new RuntimeException((String.format("[%s] Multiple classes Named ",config.pluginSign)) + name + ": " + fullClassNames
+                    + " Please use full qualified name!");
+        }
+        if (fullClassNames.size() == 1) {
+            return fullClassNames.get(0);
         }
         return name;
     }
@@ -2,7 +2,6 @@ package zju.cst.aces.api.config;
 
 import com.github.javaparser.symbolsolver.JavaSymbolSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.JarTypeSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.JavaParserTypeSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
 import zju.cst.aces.api.PreProcess;
@@ -13,14 +12,33 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import lombok.Getter;
 import lombok.Setter;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import zju.cst.aces.api.Validator;
 import zju.cst.aces.api.impl.LoggerImpl;
 import zju.cst.aces.api.Logger;
 import zju.cst.aces.api.impl.ValidatorImpl;
 import zju.cst.aces.dto.OCM;
+import zju.cst.aces.parser.JobManifest;
+import zju.cst.aces.parser.LazyJarTypeSolver;
+import zju.cst.aces.parser.ParseInfoStore;
+import zju.cst.aces.parser.ProjectCodeSnapshot;
 import zju.cst.aces.parser.ProjectParser;
+import zju.cst.aces.parser.SourceSnapshot;
 import zju.cst.aces.prompt.template.PromptTemplate;
+import zju.cst.aces.prompt.template.TemplateRegistry;
+import zju.cst.aces.util.ClassNameIndex;
+import zju.cst.aces.util.Counter;
+import zju.cst.aces.util.ApiKeyPool;
+import zju.cst.aces.util.EndpointRouter;
+import zju.cst.aces.util.InFlightLimiter;
+import zju.cst.aces.util.RateLimiter;
+import zju.cst.aces.util.ResponseCache;
+import zju.cst.aces.util.TokenCounter;
+import zju.cst.aces.util.mock.MockLLM;
+import zju.cst.aces.util.mock.MockLLMInterceptor;
+import zju.cst.aces.util.testpilot.SnippetIndex;
+import zju.cst.aces.util.ParseInfoCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -32,6 +50,7 @@ import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -48,7 +67,15 @@ public class Config {
     public Path promptPath;
     public Properties properties;
     public String url;
+    public String[] endpoints;
+    public List<String> urls;
+    public boolean enableHedging;
+    public long hedgeAfterMillis;
+    public EndpointRouter endpointRouter;
+    public String mockLlm;
+    public MockLLM mockLlmStub;
     public String[] apiKeys;
+    public ApiKeyPool apiKeyPool;
     public Logger logger;
     public String OS;
     public boolean stopWhenSuccess;
@@ -62,12 +89,27 @@ public class Config {
     public int classThreads;
     public int methodThreads;
     public int testNumber;
+    public int samplesPerRequest;
     public int maxRounds;
     public int ragPercent;
     public int maxPromptTokens;
     public int maxResponseTokens;
     public int minErrorTokens;
     public int sleepTime;
+    public boolean enableAsyncChat;
+    public boolean enableStreaming;
+    public boolean enableStreamCutoff;
+    public boolean enablePrefixLayout;
+    public boolean enablePromptHotReload;
+    public int maxInFlightPerHost;
+    public int maxInFlightPerKey;
+    public InFlightLimiter inFlightLimiter;
+    public int requestsPerMinute;
+    public int tokensPerMinute;
+    public RateLimiter rateLimiter;
+    public ResponseCache.Mode responseCacheMode;
+    public long responseCacheMaxBytes;
+    public ResponseCache responseCache;
     public int dependencyDepth;
     public Model model;
     public Double temperature;
@@ -81,6 +123,9 @@ public class Config {
     public Path parseOutput;
     public Path errorOutput;
     public Path classNameMapPath;
+    public Path sourceManifestPath;
+    public Path jobManifestPath;
+    public Path dependencyIndexPath;
     public Path historyPath;
     public Path examplePath;
     public Path symbolFramePath;
@@ -93,7 +138,7 @@ public class Config {
     public AtomicInteger sharedInteger = new AtomicInteger(0);
     public AtomicInteger jobCount = new AtomicInteger(0);
     public AtomicInteger completedJobCount = new AtomicInteger(0);
-    public static Map<String, Map<String, String>> classMapping = new HashMap<>();
+    public static Map<String, Map<String, String>> classMapping = new ConcurrentSkipListMap<>();
     public static Map<String, TreeSet<String>> objectConstructionCode = new HashMap<>();
     public static OCM ocm = new OCM();
     public Validator validator;
@@ -103,6 +148,20 @@ public class Config {
     public boolean useExtra;
     public List<String> dependencyPaths;
     public boolean generateJsonReport;
+    public int infoCacheSize;
+    public ParseInfoCache infoCache;
+    public boolean enableBinaryStore;
+    public boolean enableJsonExport;
+    public boolean enableIncrementalParse;
+    public int parseThreads;
+    public int maxLiveAsts;
+    public boolean enableSourceRefs;
+    public ParseInfoStore parseStore;
+    public SourceSnapshot sourceSnapshot;
+    public ProjectCodeSnapshot projectCodeSnapshot;
+    public SnippetIndex snippetIndex;
+    public JobManifest jobManifest;
+    public ClassNameIndex classNameIndex;
 
     @Getter
     @Setter
@@ -116,6 +175,10 @@ public class Config {
         public Path promptPath;
         public Properties properties;
         public String url;
+        public String[] endpoints = new String[0];
+        public boolean enableHedging = false;
+        public long hedgeAfterMillis = 0;
+        public String mockLlm = null;
         public String[] apiKeys;
         public Logger logger;
         public String OS = System.getProperty("os.name").toLowerCase();
@@ -130,12 +193,24 @@ public class Config {
         public int classThreads = (int) Math.ceil((double)  this.maxThreads / 10);
         public int methodThreads = (int) Math.ceil((double) this.maxThreads / this.classThreads);
         public int testNumber = 5;
+        public int samplesPerRequest = 1;
         public int maxRounds = 5;
         public int ragPercent = 100;
         public int maxPromptTokens = 2600;
         public int maxResponseTokens = 1024;
         public int minErrorTokens = 500;
         public int sleepTime = 0;
+        public boolean enableAsyncChat = false;
+        public boolean enableStreaming = false;
+        public boolean enableStreamCutoff = true;
+        public boolean enablePrefixLayout = false;
+        public boolean enablePromptHotReload = false;
+        public int maxInFlightPerHost = 64;
+        public int maxInFlightPerKey = 16;
+        public int requestsPerMinute = 0;
+        public int tokensPerMinute = 0;
+        public ResponseCache.Mode responseCacheMode = ResponseCache.Mode.OFF;
+        public long responseCacheMaxBytes = 512L * 1024 * 1024;
         public int dependencyDepth = 1;
         public Model model = Model.GPT_3_5_TURBO;
         public Double temperature = 0.5;
@@ -149,6 +224,9 @@ public class Config {
         public Path compileOutputPath;
         public Path errorOutput;
         public Path classNameMapPath;
+        public Path sourceManifestPath;
+        public Path jobManifestPath;
+        public Path dependencyIndexPath;
         public Path historyPath;
         public Path examplePath;
         public Path symbolFramePath;
@@ -168,6 +246,13 @@ public class Config {
         public boolean useExtra;
         public List<String> dependencyPaths;
         public boolean generateJsonReport = false;
+        public int infoCacheSize = 4096;
+        public boolean enableBinaryStore = false;
+        public boolean enableJsonExport = true;
+        public boolean enableIncrementalParse = false;
+        public int parseThreads = 1;
+        public int maxLiveAsts = 128;
+        public boolean enableSourceRefs = false;
 
         public ConfigBuilder(Project project) {
             initDefault(project);
@@ -180,10 +265,6 @@ public class Config {
             this.classPaths = project.getClassPaths();
 
             this.logger = new LoggerImpl();
-            this.parser = new JavaParser();
-            JavaSymbolSolver symbolSolver = getSymbolSolver();
-            parser.getParserConfiguration().setSymbolResolver(symbolSolver);
-            ProjectParser.setLanguageLevel(parser.getParserConfiguration());
 
             this.properties("config.properties");
 
@@ -194,6 +275,8 @@ public class Config {
                 this.minErrorTokens = 512;
             }
 
+            // above the module directories, the jars of all modules are indexed in one file
+            this.dependencyIndexPath = this.tmpOutput.resolve("dependencyIndex.json");
             Project parent = project.getParent();
             while(parent != null && parent.getBasedir() != null) {
                 this.tmpOutput = this.tmpOutput.resolve(parent.getArtifactId());
@@ -204,6 +287,8 @@ public class Config {
             this.parseOutput = this.tmpOutput.resolve("class-info");
             this.errorOutput = this.tmpOutput.resolve("error-message");
             this.classNameMapPath = this.tmpOutput.resolve("classNameMapping.json");
+            this.sourceManifestPath = this.tmpOutput.resolve("sourceManifest.json");
+            this.jobManifestPath = this.tmpOutput.resolve("jobManifest.json");
             this.historyPath = this.tmpOutput.resolve("history" + this.date);
             this.symbolFramePath = this.tmpOutput.resolve("symbolFrames.json");
             this.counterExamplePath = project.getBasedir().toPath().resolve("smartut-tests");
@@ -212,6 +297,16 @@ public class Config {
                     this.project.getBasedir().toPath().resolve("target"), this.classPaths);
         }
 
+        /**
+         * Create the parser of the project, on build when no parser was set, so the paths are final.
+         */
+        private void initParser() {
+            this.parser = new JavaParser();
+            JavaSymbolSolver symbolSolver = getSymbolSolver();
+            parser.getParserConfiguration().setSymbolResolver(symbolSolver);
+            ProjectParser.setLanguageLevel(parser.getParserConfiguration());
+        }
+
         public ConfigBuilder maxThreads(int maxThreads) {
             if (maxThreads <= 0) {
                 this.maxThreads = Runtime.getRuntime().availableProcessors() * 5;
@@ -236,6 +331,7 @@ public class Config {
         }
         public ConfigBuilder tmpOutput(Path tmpOutput) {
             this.tmpOutput = tmpOutput;
+            this.dependencyIndexPath = tmpOutput.resolve("dependencyIndex.json");
             Project parent = project.getParent();
             while(parent != null && parent.getBasedir() != null) {
                 this.tmpOutput = this.tmpOutput.resolve(parent.getArtifactId());
@@ -246,6 +342,8 @@ public class Config {
             this.parseOutput = this.tmpOutput.resolve("class-info");
             this.errorOutput = this.tmpOutput.resolve("error-message");
             this.classNameMapPath = this.tmpOutput.resolve("classNameMapping.json");
+            this.sourceManifestPath = this.tmpOutput.resolve("sourceManifest.json");
+            this.jobManifestPath = this.tmpOutput.resolve("jobManifest.json");
             this.historyPath = this.tmpOutput.resolve("history" + this.date);
             this.symbolFramePath = this.tmpOutput.resolve("symbolFrames.json");
             this.validator = new ValidatorImpl(this.testOutput, this.compileOutputPath,
@@ -397,11 +495,56 @@ public class Config {
             return this;
         }
 
+        /**
+         * More OpenAI-compatible endpoints serving the model, requests are routed over them and the url by their
+         * observed latency and error rate, and fail over to each other.
+         */
+        public ConfigBuilder endpoints(String[] endpoints) {
+            this.endpoints = endpoints == null ? new String[0] : endpoints;
+            return this;
+        }
+
+        /**
+         * Send a second request to another endpoint when the first has not answered after the hedge delay,
+         * the first response wins.
+         */
+        public ConfigBuilder enableHedging(boolean enableHedging) {
+            this.enableHedging = enableHedging;
+            return this;
+        }
+
+        /**
+         * Delay of the hedged request, the p95 latency of the endpoint if <= 0.
+         */
+        public ConfigBuilder hedgeAfterMillis(long hedgeAfterMillis) {
+            this.hedgeAfterMillis = hedgeAfterMillis;
+            return this;
+        }
+
+        /**
+         * Answer the chat requests with the in-process mock LLM instead of the model url, for benchmarks without
+         * network, e.g. "latency=200,p95=800,errors=0.01,429=0.05,seed=42". A model url starting with "mock:"
+         * has the same effect.
+         */
+        public ConfigBuilder mockLlm(String mockLlm) {
+            this.mockLlm = mockLlm;
+            return this;
+        }
+
         public ConfigBuilder apiKeys(String[] apiKeys) {
             this.apiKeys = apiKeys;
             return this;
         }
 
+        /**
+         * Number of attempts whose first test is generated by one request with the n parameter, 1 to send one request
+         * per attempt.
+         */
+        public ConfigBuilder samplesPerRequest(int samplesPerRequest) {
+            this.samplesPerRequest = Math.max(1, samplesPerRequest);
+            return this;
+        }
+
         public ConfigBuilder testNumber(int testNumber) {
             this.testNumber = testNumber;
             return this;
@@ -439,6 +582,100 @@ public class Config {
             return this;
         }
 
+        /**
+         * Send the chat requests on the okhttp async dispatcher instead of blocking a thread per request.
+         */
+        public ConfigBuilder enableAsyncChat(boolean enableAsyncChat) {
+            this.enableAsyncChat = enableAsyncChat;
+            return this;
+        }
+
+        /**
+         * Stream the chat completions as server-sent events.
+         */
+        public ConfigBuilder enableStreaming(boolean enableStreaming) {
+            this.enableStreaming = enableStreaming;
+            return this;
+        }
+
+        /**
+         * Cancel a streamed completion once the first code block with a test class is complete.
+         */
+        public ConfigBuilder enableStreamCutoff(boolean enableStreamCutoff) {
+            this.enableStreamCutoff = enableStreamCutoff;
+            return this;
+        }
+
+        /**
+         * Put the stable context of the focal method before the test and the errors in the prompts, so all attempts
+         * and repair rounds of a method share one prompt prefix that the provider can cache.
+         */
+        public ConfigBuilder enablePrefixLayout(boolean enablePrefixLayout) {
+            this.enablePrefixLayout = enablePrefixLayout;
+            return this;
+        }
+
+        /**
+         * Check the prompt templates for changes during the run, otherwise they are parsed once.
+         */
+        public ConfigBuilder enablePromptHotReload(boolean enablePromptHotReload) {
+            this.enablePromptHotReload = enablePromptHotReload;
+            return this;
+        }
+
+        /**
+         * Max number of async chat requests in flight to one host, unlimited if <= 0.
+         */
+        public ConfigBuilder maxInFlightPerHost(int maxInFlightPerHost) {
+            this.maxInFlightPerHost = maxInFlightPerHost;
+            return this;
+        }
+
+        /**
+         * Max number of async chat requests in flight with one api key, unlimited if <= 0.
+         */
+        public ConfigBuilder maxInFlightPerKey(int maxInFlightPerKey) {
+            this.maxInFlightPerKey = maxInFlightPerKey;
+            return this;
+        }
+
+        /**
+         * Requests per minute allowed for each api key, only limited by the rate limit headers if <= 0.
+         */
+        public ConfigBuilder requestsPerMinute(int requestsPerMinute) {
+            this.requestsPerMinute = requestsPerMinute;
+            return this;
+        }
+
+        /**
+         * Tokens per minute allowed for each api key, only limited by the rate limit headers if <= 0.
+         */
+        public ConfigBuilder tokensPerMinute(int tokensPerMinute) {
+            this.tokensPerMinute = tokensPerMinute;
+            return this;
+        }
+
+        /**
+         * Cache the LLM responses under tmpOutput/llm-cache, REPLAY fails on requests that were not recorded.
+         */
+        public ConfigBuilder responseCacheMode(ResponseCache.Mode responseCacheMode) {
+            this.responseCacheMode = responseCacheMode == null ? ResponseCache.Mode.OFF : responseCacheMode;
+            return this;
+        }
+
+        public ConfigBuilder responseCacheMode(String responseCacheMode) {
+            return responseCacheMode(responseCacheMode == null ? null
+                    : ResponseCache.Mode.valueOf(responseCacheMode.trim().toUpperCase().replace('-', '_')));
+        }
+
+        /**
+         * Max size of the response cache, unbounded if <= 0.
+         */
+        public ConfigBuilder responseCacheMaxBytes(long responseCacheMaxBytes) {
+            this.responseCacheMaxBytes = responseCacheMaxBytes;
+            return this;
+        }
+
         public ConfigBuilder dependencyDepth(int dependencyDepth) {
             this.dependencyDepth = dependencyDepth;
             return this;
@@ -549,6 +786,55 @@ public class Config {
             return this;
         }
 
+        public ConfigBuilder infoCacheSize(int infoCacheSize) {
+            this.infoCacheSize = infoCacheSize;
+            return this;
+        }
+
+        public ConfigBuilder enableBinaryStore(boolean enableBinaryStore) {
+            this.enableBinaryStore = enableBinaryStore;
+            return this;
+        }
+
+        public ConfigBuilder enableJsonExport(boolean enableJsonExport) {
+            this.enableJsonExport = enableJsonExport;
+            return this;
+        }
+
+        public ConfigBuilder enableIncrementalParse(boolean enableIncrementalParse) {
+            this.enableIncrementalParse = enableIncrementalParse;
+            return this;
+        }
+
+        /**
+         * Max number of ASTs kept in memory while parsing, unbounded if <= 0. The files are parsed in batches of
+         * that size, the symbol solvers and the ASTs their caches keep are dropped after each batch.
+         */
+        public ConfigBuilder maxLiveAsts(int maxLiveAsts) {
+            this.maxLiveAsts = maxLiveAsts;
+            return this;
+        }
+
+        /**
+         * Keep source offsets into a snapshot of the source files instead of the code text in the parse records.
+         */
+        public ConfigBuilder enableSourceRefs(boolean enableSourceRefs) {
+            this.enableSourceRefs = enableSourceRefs;
+            return this;
+        }
+
+        /**
+         * Threads parsing the source files, each with its own symbol solver. 1 by default, <= 0 for all processors.
+         */
+        public ConfigBuilder parseThreads(int parseThreads) {
+            if (parseThreads <= 0) {
+                this.parseThreads = Runtime.getRuntime().availableProcessors();
+            } else {
+                this.parseThreads = parseThreads;
+            }
+            return this;
+        }
+
         public void setProxy(String proxy) {
             this.proxy = proxy;
             setProxyStr();
@@ -587,31 +873,17 @@ public class Config {
         }
 
         public JavaSymbolSolver getSymbolSolver() {
-            CombinedTypeSolver combinedTypeSolver = new CombinedTypeSolver();
-            combinedTypeSolver.add(new ReflectionTypeSolver());
-            for (String dep : this.getClassPaths()) {
-                try {
-                    File depFile = new File(dep);
-                    if (!depFile.exists() || !dep.endsWith("jar")) {
-                        continue;
-                    }
-                    combinedTypeSolver.add(new JarTypeSolver(depFile));
-                } catch (Exception e) {
-                    this.getLogger().warn(e.getMessage());
-                    this.getLogger().debug(e.getMessage());
-                }
-            }
-            for (String src : this.getProject().getCompileSourceRoots()) { // TODO: remove MavenProject
-                if (new File(src).exists()) {
-                    combinedTypeSolver.add(new JavaParserTypeSolver(src));
-                }
-            }
+            CombinedTypeSolver combinedTypeSolver = createTypeSolver(this.getProject(), LazyJarTypeSolver.getShared(
+                    this.getClassPaths(), this.dependencyIndexPath, this.getLogger()));
             JavaSymbolSolver symbolSolver = new JavaSymbolSolver(combinedTypeSolver);
             this.setParserFacade(JavaParserFacade.get(combinedTypeSolver));
             return symbolSolver;
         }
 
         public Config build() {
+            if (this.parser == null) {
+                initParser();
+            }
             Config config = new Config();
             config.setDate(this.date);
             config.setGSON(new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create());
@@ -622,7 +894,31 @@ public class Config {
             config.setClassPaths(this.classPaths);
             config.setPromptPath(this.promptPath);
             config.setProperties(this.properties);
-            config.setUrl(this.url);
+            List<String> urls = new ArrayList<>(this.model.getDefaultConfig().getUrls());
+            for (String endpoint : this.endpoints) {
+                if (endpoint != null && !endpoint.trim().isEmpty() && !urls.contains(endpoint.trim())) {
+                    urls.add(endpoint.trim());
+                }
+            }
+            config.setUrl(this.url == null ? this.model.getDefaultConfig().getUrl() : this.url);
+            config.setEndpoints(this.endpoints);
+            config.setEnableHedging(this.enableHedging);
+            config.setHedgeAfterMillis(this.hedgeAfterMillis);
+            if (this.mockLlm == null && MockLLM.isMockUrl(this.model.getDefaultConfig().getUrl())) {
+                this.mockLlm = this.model.getDefaultConfig().getUrl();
+            }
+            if (this.mockLlm != null) {
+                MockLLM mockLLM = MockLLM.of(this.mockLlm);
+                urls = new ArrayList<>(Collections.singletonList(MockLLM.STUB_URL));
+                config.setUrl(MockLLM.STUB_URL);
+                this.client = this.client.newBuilder().addInterceptor(new MockLLMInterceptor(mockLLM)).build();
+                if (this.apiKeys == null || this.apiKeys.length == 0) {
+                    this.apiKeys = new String[]{"mock"};
+                }
+                config.setMockLlmStub(mockLLM);
+            }
+            config.setMockLlm(this.mockLlm);
+            config.setUrls(urls);
             config.setApiKeys(this.apiKeys);
             config.setOS(this.OS);
             config.setStopWhenSuccess(this.stopWhenSuccess);
@@ -636,14 +932,28 @@ public class Config {
             config.setClassThreads(this.classThreads);
             config.setMethodThreads(this.methodThreads);
             config.setTestNumber(this.testNumber);
+            config.setSamplesPerRequest(this.samplesPerRequest);
             config.setMaxRounds(this.maxRounds);
             config.setRagPercent(this.ragPercent);
             config.setMaxPromptTokens(this.maxPromptTokens);
             config.setMaxResponseTokens(this.maxResponseTokens);
             config.setMinErrorTokens(this.minErrorTokens);
             config.setSleepTime(this.sleepTime);
+            config.setEnableAsyncChat(this.enableAsyncChat);
+            config.setEnableStreaming(this.enableStreaming);
+            config.setEnableStreamCutoff(this.enableStreamCutoff);
+            config.setEnablePrefixLayout(this.enablePrefixLayout);
+            config.setEnablePromptHotReload(this.enablePromptHotReload);
+            config.setMaxInFlightPerHost(this.maxInFlightPerHost);
+            config.setMaxInFlightPerKey(this.maxInFlightPerKey);
+            config.setRequestsPerMinute(this.requestsPerMinute);
+            config.setTokensPerMinute(this.tokensPerMinute);
+            config.setResponseCacheMode(this.responseCacheMode);
+            config.setResponseCacheMaxBytes(this.responseCacheMaxBytes);
             config.setDependencyDepth(this.dependencyDepth);
             config.setModel(this.model);
+            // the counts without a model use the tokenizer of the configured model
+            TokenCounter.setDefaultModel(this.model);
             config.setTemperature(this.temperature);
             config.setTopP(this.topP);
             config.setFrequencyPenalty(this.frequencyPenalty);
@@ -655,13 +965,26 @@ public class Config {
             config.setParseOutput(this.parseOutput);
             config.setErrorOutput(this.errorOutput);
             config.setClassNameMapPath(this.classNameMapPath);
+            config.setSourceManifestPath(this.sourceManifestPath);
+            config.setJobManifestPath(this.jobManifestPath);
+            config.setDependencyIndexPath(this.dependencyIndexPath);
             config.setHistoryPath(this.historyPath);
             config.setExamplePath(this.examplePath);
             config.setSymbolFramePath(this.symbolFramePath);
             config.setProxy(this.proxy);
             config.setHostname(this.hostname);
             config.setPort(this.port);
-            config.setClient(this.client);
+            OkHttpClient client = this.client;
+            if (this.enableAsyncChat) {
+                // the in-flight limiter bounds the async requests, the dispatcher must not queue them again.
+                // A copy of the client gets its own dispatcher, the client given to the builder is not changed
+                Dispatcher dispatcher = new Dispatcher();
+                int maxInFlight = this.maxInFlightPerHost > 0 ? this.maxInFlightPerHost : Integer.MAX_VALUE;
+                dispatcher.setMaxRequests(Math.max(client.dispatcher().getMaxRequests(), maxInFlight));
+                dispatcher.setMaxRequestsPerHost(Math.max(client.dispatcher().getMaxRequestsPerHost(), maxInFlight));
+                client = client.newBuilder().dispatcher(dispatcher).build();
+            }
+            config.setClient(client);
             config.setLogger(this.logger);
             config.setValidator(this.validator);
             config.setPluginSign(this.pluginSign);
@@ -671,17 +994,196 @@ public class Config {
             config.setMax_coverage_improve_time(this.max_coverage_improve_time);
             config.setDependencyPaths(this.dependencyPaths);
             config.setGenerateJsonReport(this.generateJsonReport);
+            config.setInfoCacheSize(this.infoCacheSize);
+            config.setInfoCache(new ParseInfoCache(this.infoCacheSize));
+            config.setEnableBinaryStore(this.enableBinaryStore);
+            config.setEnableJsonExport(this.enableJsonExport);
+            config.setEnableIncrementalParse(this.enableIncrementalParse);
+            config.setParseThreads(this.parseThreads);
+            config.setMaxLiveAsts(this.maxLiveAsts);
+            config.setEnableSourceRefs(this.enableSourceRefs);
+            TemplateRegistry.precompile(config);
             return config;
         }
     }
 
-    public String getRandomKey() {
-        Random rand = new Random();
-        if (apiKeys.length == 0) {
-            throw new RuntimeException("apiKeys is null!");
+    public synchronized ParseInfoCache getInfoCache() {
+        if (infoCache == null) {
+            infoCache = new ParseInfoCache(infoCacheSize);
+        }
+        return infoCache;
+    }
+
+    /**
+     * Create a symbol solver with its own type solvers and caches, for a parser used by one thread only.
+     * The solvers of the shared parser are not thread-safe, only the package index of the dependency jars is shared.
+     */
+    public JavaSymbolSolver createSymbolSolver() {
+        LazyJarTypeSolver jarSolver = LazyJarTypeSolver.getShared(classPaths, dependencyIndexPath, logger);
+        return new JavaSymbolSolver(createTypeSolver(project, jarSolver.fork()));
+    }
+
+    /**
+     * Type solver of the JDK, the dependency jars and the source roots of the project.
+     * @param jarSolver solver of the dependency jars, opened on the first lookup of a package they contain
+     */
+    public static CombinedTypeSolver createTypeSolver(Project project, LazyJarTypeSolver jarSolver) {
+        CombinedTypeSolver combinedTypeSolver = new CombinedTypeSolver();
+        combinedTypeSolver.add(new ReflectionTypeSolver());
+        combinedTypeSolver.add(jarSolver);
+        for (String src : project.getCompileSourceRoots()) { // TODO: remove MavenProject
+            if (new File(src).exists()) {
+                combinedTypeSolver.add(new JavaParserTypeSolver(src));
+            }
+        }
+        return combinedTypeSolver;
+    }
+
+    /**
+     * Get the single-file parse store under parseOutput, opened on first use.
+     * @return null if the binary store is disabled
+     */
+    public synchronized ParseInfoStore getParseStore() {
+        if (parseStore == null && enableBinaryStore) {
+            try {
+                parseStore = ParseInfoStore.open(parseOutput);
+            } catch (IOException e) {
+                throw new RuntimeException("In Config.getParseStore: " + e);
+            }
+        }
+        return parseStore;
+    }
+
+    /**
+     * Get the source snapshot referenced by the parse records, opened on first use.
+     * @return null if source refs are disabled and no snapshot exists
+     */
+    public synchronized SourceSnapshot getSourceSnapshot() {
+        if (sourceSnapshot == null && (enableSourceRefs || SourceSnapshot.exists(tmpOutput))) {
+            try {
+                sourceSnapshot = SourceSnapshot.open(tmpOutput);
+            } catch (IOException e) {
+                throw new RuntimeException("In Config.getSourceSnapshot: " + e);
+            }
+        }
+        return sourceSnapshot;
+    }
+
+    /**
+     * Get the snapshot of the project source files shown as project_full_code, built or checked on first use.
+     */
+    public synchronized ProjectCodeSnapshot getProjectCodeSnapshot() {
+        if (projectCodeSnapshot == null) {
+            try {
+                projectCodeSnapshot = ProjectCodeSnapshot.open(project, tmpOutput);
+            } catch (IOException e) {
+                throw new RuntimeException("In Config.getProjectCodeSnapshot: " + e);
+            }
+        }
+        return projectCodeSnapshot;
+    }
+
+    /**
+     * Get the index of the code snippets of the project documentation, loaded or built on first use.
+     */
+    public synchronized SnippetIndex getSnippetIndex() {
+        if (snippetIndex == null) {
+            try {
+                snippetIndex = SnippetIndex.open(project.getBasedir().toPath(), tmpOutput.resolve(SnippetIndex.INDEX_FILE), GSON);
+            } catch (IOException e) {
+                throw new RuntimeException("In Config.getSnippetIndex: " + e);
+            }
+        }
+        return snippetIndex;
+    }
+
+    /**
+     * Get the manifest of the classes and methods to test, set by the parser or loaded from jobManifest.json.
+     * Built from the parse output once if the manifest is missing.
+     */
+    public synchronized JobManifest getJobManifest() {
+        if (jobManifest == null) {
+            try {
+                jobManifest = JobManifest.load(jobManifestPath, GSON);
+                if (jobManifest == null) {
+                    jobManifest = Counter.buildJobManifest(this);
+                    jobManifest.save(jobManifestPath, GSON);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("In Config.getJobManifest: " + e);
+            }
+        }
+        return jobManifest;
+    }
+
+    /**
+     * Get the response cache under tmpOutput, opened on first use.
+     * @return null if the cache is off
+     */
+    public synchronized ResponseCache getResponseCache() {
+        if (responseCache == null && responseCacheMode != null && responseCacheMode != ResponseCache.Mode.OFF) {
+            try {
+                responseCache = new ResponseCache(tmpOutput.resolve("llm-cache"), responseCacheMode, responseCacheMaxBytes);
+            } catch (IOException e) {
+                throw new RuntimeException("In Config.getResponseCache: " + e);
+            }
         }
-        String apiKey = apiKeys[rand.nextInt(apiKeys.length)];
-        return apiKey;
+        return responseCache;
+    }
+
+    /**
+     * Get the rate limiter shared by all requests of this config.
+     */
+    public synchronized RateLimiter getRateLimiter() {
+        if (rateLimiter == null) {
+            rateLimiter = new RateLimiter(requestsPerMinute, tokensPerMinute);
+        }
+        return rateLimiter;
+    }
+
+    public synchronized InFlightLimiter getInFlightLimiter() {
+        if (inFlightLimiter == null) {
+            inFlightLimiter = new InFlightLimiter(maxInFlightPerHost, maxInFlightPerKey);
+        }
+        return inFlightLimiter;
+    }
+
+    /**
+     * Get the class name index, loaded once from classNameMapping.json if it was not set by the parser.
+     */
+    public synchronized ClassNameIndex getClassNameIndex() {
+        if (classNameIndex == null) {
+            try {
+                classNameIndex = ClassNameIndex.load(classNameMapPath, GSON);
+            } catch (IOException e) {
+                throw new RuntimeException("In Config.getClassNameIndex: " + e);
+            }
+            if (classNameIndex == null) {
+                // not parsed yet, do not keep the empty index
+                return ClassNameIndex.EMPTY;
+            }
+        }
+        return classNameIndex;
+    }
+
+    /**
+     * Get the router over the urls of this config shared by all requests of this config.
+     */
+    public synchronized EndpointRouter getEndpointRouter() {
+        if (endpointRouter == null) {
+            endpointRouter = new EndpointRouter(urls == null ? model.getDefaultConfig().getUrls() : urls);
+        }
+        return endpointRouter;
+    }
+
+    /**
+     * Get the pool of the api keys shared by all requests of this config.
+     */
+    public synchronized ApiKeyPool getApiKeyPool() {
+        if (apiKeyPool == null) {
+            apiKeyPool = new ApiKeyPool(apiKeys);
+        }
+        return apiKeyPool;
     }
 
     public void print() {
@@ -703,17 +1205,34 @@ public class Config {
         logger.info(" --- ");
         logger.info(" Model >>> " + this.getModel());
         logger.info(" Url >>> " + this.getUrl());
+        if (this.getMockLlm() != null) {
+            logger.info(" MockLLM >>> " + this.getMockLlm());
+        }
+        logger.info(" Endpoints >>> " + this.getUrls() + ", Hedging >>> " + this.isEnableHedging()
+                + ", HedgeAfterMillis >>> " + this.getHedgeAfterMillis());
         logger.info(" MaxPromptTokens >>> " + this.getMaxPromptTokens());
         logger.info(" MaxResponseTokens >>> " + this.getMaxResponseTokens());
         logger.info(" MinErrorTokens >>> " + this.getMinErrorTokens());
         logger.info(" MaxThreads >>> " + this.getMaxThreads());
-        logger.info(" TestNumber >>> " + this.getTestNumber());
+        logger.info(" TestNumber >>> " + this.getTestNumber() + ", SamplesPerRequest >>> " + this.getSamplesPerRequest());
         logger.info(" MaxRounds >>> " + this.getMaxRounds());
         logger.info(" RagPercent >>> " + this.getRagPercent());
         logger.info(" MinErrorTokens >>> " + this.getMinErrorTokens());
         logger.info(" MaxPromptTokens >>> " + this.getMaxPromptTokens());
         logger.info(" SleepTime >>> " + this.getSleepTime());
+        logger.info(" Streaming >>> " + this.isEnableStreaming() + ", StreamCutoff >>> " + this.isEnableStreamCutoff());
+        logger.info(" PrefixLayout >>> " + this.isEnablePrefixLayout());
+        logger.info(" PromptHotReload >>> " + this.isEnablePromptHotReload());
+        logger.info(" AsyncChat >>> " + this.isEnableAsyncChat() + ", MaxInFlightPerHost >>> " + this.getMaxInFlightPerHost()
+                + ", MaxInFlightPerKey >>> " + this.getMaxInFlightPerKey());
+        logger.info(" RequestsPerMinute >>> " + this.getRequestsPerMinute() + ", TokensPerMinute >>> " + this.getTokensPerMinute());
+        logger.info(" ResponseCache >>> " + this.getResponseCacheMode() + ", MaxBytes >>> " + this.getResponseCacheMaxBytes());
         logger.info(" DependencyDepth >>> " + this.getDependencyDepth());
+        logger.info(" InfoCacheSize >>> " + this.getInfoCacheSize());
+        logger.info(" BinaryStore >>> " + this.isEnableBinaryStore() + ", JsonExport >>> " + this.isEnableJsonExport());
+        logger.info(" IncrementalParse >>> " + this.isEnableIncrementalParse() + ", ParseThreads >>> " + this.getParseThreads()
+                + ", MaxLiveAsts >>> " + this.getMaxLiveAsts());
+        logger.info(" SourceRefs >>> " + this.isEnableSourceRefs());
         logger.info(" PhaseType >>> " + this.phaseType);
         logger.info("\n===================================================================\n");
         try {
@@ -2,10 +2,15 @@ package zju.cst.aces.api.config;
 
 import lombok.Data;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Data
 public class ModelConfig {
     public String modelName;
     public String url;
+    /** more OpenAI-compatible endpoints serving the same model, requests are routed over them and the url */
+    public List<String> endpoints;
     public int contextLength;
     public double temperature;
     public int frequencyPenalty;
@@ -14,15 +19,35 @@ public class ModelConfig {
     private ModelConfig(Builder builder) {
         this.modelName = builder.modelName;
         this.url = builder.url;
+        this.endpoints = builder.endpoints;
         this.contextLength = builder.contextLength;
         this.temperature = builder.temperature;
         this.frequencyPenalty = builder.frequencyPenalty;
         this.presencePenalty = builder.presencePenalty;
     }
 
+    /**
+     * The url followed by the other endpoints, without duplicates.
+     */
+    public List<String> getUrls() {
+        List<String> urls = new ArrayList<>();
+        if (url != null) {
+            urls.add(url);
+        }
+        if (endpoints != null) {
+            for (String endpoint : endpoints) {
+                if (endpoint != null && !endpoint.trim().isEmpty() && !urls.contains(endpoint.trim())) {
+                    urls.add(endpoint.trim());
+                }
+            }
+        }
+        return urls;
+    }
+
     public static class Builder {
         private String modelName = "gpt-3.5-turbo";
         private String url = "https://api.gptsapi.net/v1/chat/completions";
+        private List<String> endpoints = new ArrayList<>();
         private int contextLength = 4096;
         private double temperature = 0.5;
         private int frequencyPenalty = 0;
@@ -38,6 +63,11 @@ public class ModelConfig {
             return this;
         }
 
+        public Builder withEndpoints(List<String> endpoints) {
+            this.endpoints = endpoints;
+            return this;
+        }
+
         public Builder withContextLength(int contextLength) {
             this.contextLength = contextLength;
             return this;
@@ -2,13 +2,19 @@ package zju.cst.aces.api.impl;
 
 import zju.cst.aces.api.Generator;
 import zju.cst.aces.api.config.Config;
+import zju.cst.aces.dto.ChatChoice;
 import zju.cst.aces.dto.ChatMessage;
 import zju.cst.aces.dto.ChatResponse;
+import zju.cst.aces.dto.ChatUsage;
 import zju.cst.aces.runner.AbstractRunner;
 import zju.cst.aces.util.AskGPT;
 import zju.cst.aces.util.CodeExtractor;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class ChatGenerator implements Generator {
 
@@ -24,13 +30,104 @@ public class ChatGenerator implements Generator {
     }
 
     public static ChatResponse chat(Config config, List<ChatMessage> chatMessages) {
-        ChatResponse response = new AskGPT(config).askChatGPT(chatMessages);
+        ChatResponse response;
+        if (config.isEnableAsyncChat()) {
+            try {
+                response = new AskGPT(config).askChatGPTAsync(chatMessages).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        } else {
+            response = new AskGPT(config).askChatGPT(chatMessages);
+        }
+        if (response == null) {
+            throw new RuntimeException("Response is null, failed to get response.");
+        }
+        return response;
+    }
+
+    /**
+     * Chat without blocking the calling thread while the request is in flight.
+     */
+    public static CompletableFuture<ChatResponse> chatAsync(Config config, List<ChatMessage> chatMessages) {
+        return new AskGPT(config).askChatGPTAsync(chatMessages).thenApply(response -> {
+            if (response == null) {
+                throw new RuntimeException("Response is null, failed to get response.");
+            }
+            return response;
+        });
+    }
+
+    /**
+     * Get n samples of the response with one request using the n parameter, the samples a backend without n support
+     * did not return are requested in parallel.
+     * @return one response per sample, fewer than n if requests failed. The prompt tokens are counted on the first sample
+     */
+    public static List<ChatResponse> chatSamples(Config config, List<ChatMessage> chatMessages, int n) {
+        AskGPT askGPT = new AskGPT(config);
+        List<ChatResponse> samples = splitChoices(chat(config, chatMessages, askGPT, n));
+        if (samples.size() < n) {
+            List<CompletableFuture<ChatResponse>> futures = new ArrayList<>();
+            for (int sample = samples.size(); sample < n; sample++) {
+                int finalSample = sample;
+                // a failed request leaves its sample out instead of failing the others
+                futures.add(askGPT.askChatGPTAsync(chatMessages, 1, sample).exceptionally(e -> {
+                    config.getLogger().warn("Failed to get sample " + finalSample + ": " + e.getMessage());
+                    return null;
+                }));
+            }
+            for (CompletableFuture<ChatResponse> future : futures) {
+                ChatResponse response = future.join();
+                if (response != null) {
+                    samples.addAll(splitChoices(response));
+                }
+            }
+        }
+        return samples.size() > n ? new ArrayList<>(samples.subList(0, n)) : samples;
+    }
+
+    private static ChatResponse chat(Config config, List<ChatMessage> chatMessages, AskGPT askGPT, int n) {
+        ChatResponse response = askGPT.askChatGPT(chatMessages, n);
         if (response == null) {
             throw new RuntimeException("Response is null, failed to get response.");
         }
         return response;
     }
 
+    /**
+     * Split a response into one response per choice, the completion tokens are divided between the choices.
+     */
+    public static List<ChatResponse> splitChoices(ChatResponse response) {
+        List<ChatResponse> samples = new ArrayList<>();
+        List<ChatChoice> choices = response.getChoices();
+        if (choices == null || choices.size() <= 1) {
+            samples.add(response);
+            return samples;
+        }
+        ChatUsage usage = response.getUsage();
+        int completionTokens = usage == null || usage.getCompletionTokens() == null ? 0 : usage.getCompletionTokens();
+        for (int i = 0; i < choices.size(); i++) {
+            ChatResponse sample = new ChatResponse();
+            sample.setId(response.getId());
+            sample.setModel(response.getModel());
+            sample.setCreated(response.getCreated());
+            sample.setObject(response.getObject());
+            sample.setChoices(Collections.singletonList(choices.get(i)));
+            ChatUsage sampleUsage = new ChatUsage();
+            sampleUsage.setPromptTokens(i == 0 && usage != null ? usage.getPromptTokens() : Integer.valueOf(0));
+            if (i == 0 && usage != null) {
+                sampleUsage.setPromptTokensDetails(usage.getPromptTokensDetails());
+                sampleUsage.setPromptCacheHitTokens(usage.getPromptCacheHitTokens());
+            }
+            sampleUsage.setCompletionTokens(completionTokens / choices.size() + (i == 0 ? completionTokens % choices.size() : 0));
+            sampleUsage.setTotalTokens((sampleUsage.getPromptTokens() == null ? 0 : sampleUsage.getPromptTokens())
+                    + sampleUsage.getCompletionTokens());
+            sample.setUsage(sampleUsage);
+            samples.add(sample);
+        }
+        return samples;
+    }
+
     public static String extractCodeByResponse(ChatResponse response) {
         return new CodeExtractor(getContentByResponse(response)).getExtractedCode();
     }
@@ -48,6 +48,10 @@ public class Parser implements PreProcess {
             log.info(String.format("\n==========================\n[%s] Parsing class info ...", config.pluginSign));
             parser.parse();
             log.info(String.format("\n==========================\n[%s] Parse finished", config.pluginSign));
+        } else if (config.isEnableIncrementalParse()) {
+            log.info(String.format("\n==========================\n[%s] Updating class info of changed files ...", config.pluginSign));
+            parser.parse();
+            log.info(String.format("\n==========================\n[%s] Parse finished", config.pluginSign));
         } else {
             log.info(String.format("\n==========================\n[%s] Parse output already exists, skip parsing!", config.pluginSign));
         }
@@ -74,7 +74,7 @@ public class PromptConstructorImpl implements PromptConstructor {
 
     public void countToken() {
         for (ChatMessage p : chatMessages) {
-            this.tokenCount += TokenCounter.countToken(p.getContent());
+            this.tokenCount += TokenCounter.countToken(config.getModel(), p.getContent());
         }
     }
 
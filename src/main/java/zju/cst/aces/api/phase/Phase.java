@@ -6,11 +6,15 @@ import zju.cst.aces.dto.ClassInfo;
 import zju.cst.aces.dto.MethodInfo;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface Phase {
     void prepare();
     PromptConstructorImpl generatePrompt(ClassInfo classInfo, MethodInfo methodInfo, int num) throws IOException;
     void generateTest(PromptConstructorImpl pc);
+    CompletableFuture<Void> generateTestAsync(PromptConstructorImpl pc);
+    void generateTests(List<PromptConstructorImpl> pcs);
     boolean validateTest(PromptConstructorImpl pc);
     void repairTest(PromptConstructorImpl pc);
 }
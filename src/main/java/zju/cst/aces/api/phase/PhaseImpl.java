@@ -9,6 +9,8 @@ import zju.cst.aces.dto.ClassInfo;
 import zju.cst.aces.dto.MethodInfo;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class PhaseImpl implements Phase {
     public enum PhaseType {
@@ -41,6 +43,20 @@ public class PhaseImpl implements Phase {
         createTestGeneration().execute(pc);
     }
 
+    /**
+     * Generate the round 0 test without blocking a thread while the request is in flight.
+     */
+    public CompletableFuture<Void> generateTestAsync(PromptConstructorImpl pc) {
+        return createTestGeneration().executeAsync(pc);
+    }
+
+    /**
+     * Generate the round 0 tests of several attempts with one multi-sample request.
+     */
+    public void generateTests(List<PromptConstructorImpl> pcs) {
+        createTestGeneration().executeSamples(pcs);
+    }
+
     public boolean validateTest(PromptConstructorImpl pc) {
 
         return createValidation().execute(pc);
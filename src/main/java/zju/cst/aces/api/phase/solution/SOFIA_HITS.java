@@ -184,6 +184,7 @@ public class SOFIA_HITS extends PhaseImpl {
             }
 
             record.setPromptToken(response.getUsage().getPromptTokens());
+            record.setCachedPromptToken(response.getUsage().getCachedTokens());
             record.setResponseToken(response.getUsage().getCompletionTokens());
             record.setPrompt(prompt);
             record.setResponse(content);
@@ -22,7 +22,7 @@ public class SYMPROMPT extends PhaseImpl {
 
     @Override
     public PromptConstructorImpl generatePrompt(ClassInfo classInfo, MethodInfo methodInfo, int num){
-            List<List<String>> minPaths = PathConstraintExtractor.extractPathConstraints(methodInfo.sourceCode);
+            List<List<String>> minPaths = PathConstraintExtractor.extractPathConstraints(methodInfo.getSourceCode());
             // Convert List<List<String>> to List<String>
             SYMPROMPT.convertedPaths = minPaths.stream()
                     .map(path -> String.join(",", path))
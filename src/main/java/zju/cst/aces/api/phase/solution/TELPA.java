@@ -13,6 +13,7 @@ import zju.cst.aces.util.telpa.JavaParserUtil;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -65,6 +66,12 @@ public class TELPA extends PhaseImpl {
         }
         return super.generatePrompt(classInfo, methodInfo, num);
     }
+    @Override
+    public void generateTests(List<PromptConstructorImpl> pcs) {
+        // the SBST coverage check is made per attempt
+        pcs.forEach(this::generateTest);
+    }
+
     @Override
     public void generateTest(PromptConstructorImpl pc){
 
@@ -76,6 +83,13 @@ public class TELPA extends PhaseImpl {
         super.generateTest(pc);
     }
 
+    @Override
+    public CompletableFuture<Void> generateTestAsync(PromptConstructorImpl pc) {
+        // the SBST coverage check is made per attempt
+        generateTest(pc);
+        return CompletableFuture.completedFuture(null);
+    }
+
     public String getCounterExampleCode(ClassInfo classInfo,MethodInfo methodInfo) {
         JavaParserUtil javaParserUtil=new JavaParserUtil(config);
         NodeList<CompilationUnit> parseResult = javaParserUtil.cusWithTest;
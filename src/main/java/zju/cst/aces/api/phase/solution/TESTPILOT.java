@@ -2,9 +2,19 @@ package zju.cst.aces.api.phase.solution;
 
 import zju.cst.aces.api.config.Config;
 import zju.cst.aces.api.phase.PhaseImpl;
+import zju.cst.aces.util.testpilot.SnippetIndex;
 
 public class TESTPILOT extends PhaseImpl {
     public TESTPILOT(Config config) {
         super(config);
     }
+
+    @Override
+    public void prepare() {
+        super.prepare();
+        // the documentation snippets of the prompts are looked up in the index
+        SnippetIndex snippetIndex = config.getSnippetIndex();
+        config.getLogger().info("Snippet index >>> files: " + snippetIndex.getFileCount()
+                + ", snippets: " + snippetIndex.getSnippetCount());
+    }
 }
@@ -3,6 +3,7 @@ package zju.cst.aces.api.phase.step;
 import zju.cst.aces.api.PreProcess;
 import zju.cst.aces.api.config.Config;
 import zju.cst.aces.api.impl.Parser;
+import zju.cst.aces.parser.JobManifest;
 import zju.cst.aces.parser.ProjectParser;
 
 public  class Preparation {
@@ -15,6 +16,11 @@ public  class Preparation {
     public void execute() {
         Parser parser = new Parser(new ProjectParser(config), config.getProject(), config.getParseOutput(), config.getLogger());
         process(parser);
+        if (config.getParseOutput().toFile().exists()) {
+            JobManifest jobManifest = config.getJobManifest();
+            config.getLogger().info("Job manifest >>> classes: " + jobManifest.getClassCount()
+                    + ", methods: " + jobManifest.getMethodCount());
+        }
     }
 
     public void process(PreProcess preProcessor) {
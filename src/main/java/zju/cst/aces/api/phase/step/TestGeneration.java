@@ -11,7 +11,10 @@ import zju.cst.aces.prompt.PromptGenerator;
 import zju.cst.aces.runner.MethodRunner;
 import zju.cst.aces.util.CodeExtractor;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class TestGeneration {
     protected final Config config;
@@ -37,9 +40,7 @@ public class TestGeneration {
         assert (promptInfo.getRound() != null);
 
         int rounds = promptInfo.getRound();
-        promptInfo.addRecord(new RoundRecord(rounds));
-        RoundRecord record = promptInfo.getRecords().get(rounds);
-        record.setAttempt(promptInfo.getTestNum());
+        RoundRecord record = newRecord(promptInfo, rounds);
 
         if (rounds == 0) {
             config.getLogger().info("Generating test for method < " + methodInfo.methodName + " > round " + rounds + " ...");
@@ -47,28 +48,94 @@ public class TestGeneration {
             config.getLogger().info("Fixing test for method < " + methodInfo.methodName + " > round " + rounds + " ...");
         }
 
-        List<ChatMessage> prompt;
-        String code;
-        if (config.isEnableObfuscate()) {
-            Obfuscator obfuscator = new Obfuscator(config);
-            PromptInfo obfuscatedPromptInfo = new PromptInfo(promptInfo);
-            obfuscator.obfuscatePromptInfo(obfuscatedPromptInfo);
-            prompt = promptGenerator.generateMessages(obfuscatedPromptInfo,config.getPhaseType());
-            code = generateTest(prompt, record);
+        GeneratedPrompt prompt = buildPrompt(promptInfo);
+        String code = generateTest(prompt.messages, record);
+        if (!record.isHasCode()) {
+            promptInfo.setUnitTest("");
+            return;
+        }
+        if (prompt.obfuscator != null) {
+            code = prompt.obfuscator.deobfuscateJava(code);
+        }
+
+        setUnitTest(pc, record, code);
+    }
+
+    /**
+     * Same as execute, but the request is sent with chatAsync and the test is set when the response arrives,
+     * no thread waits for the response.
+     */
+    public CompletableFuture<Void> executeAsync(PromptConstructorImpl pc) {
+        PromptInfo promptInfo = pc.getPromptInfo();
+        if (promptGenerator == null) {
+            setUp(promptInfo);
+        }
+
+        assert (promptInfo.getRound() != null);
+
+        int rounds = promptInfo.getRound();
+        RoundRecord record = newRecord(promptInfo, rounds);
+        config.getLogger().info("Generating test for method < " + methodInfo.methodName + " > round " + rounds + " ...");
+
+        GeneratedPrompt prompt = buildPrompt(promptInfo);
+        if (isSkipped(prompt.messages, record)) {
+            promptInfo.setUnitTest("");
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return ChatGenerator.chatAsync(config, prompt.messages).thenAccept(response -> {
+            String code = recordResponse(response, prompt.messages, record);
             if (!record.isHasCode()) {
                 promptInfo.setUnitTest("");
                 return;
             }
-            code = obfuscator.deobfuscateJava(code);
-        } else {
-            prompt = promptGenerator.generateMessages(promptInfo,config.getPhaseType());
-            code = generateTest(prompt, record);
-            if (!record.isHasCode()) {
-                promptInfo.setUnitTest("");
-                return;
+            if (prompt.obfuscator != null) {
+                code = prompt.obfuscator.deobfuscateJava(code);
             }
+            setUnitTest(pc, record, code);
+        });
+    }
+
+    /**
+     * Generate the round 0 tests of several attempts from the choices of one request. The prompt of the first attempt
+     * is sent, each choice is then completed with the test name and prompt info of its own attempt.
+     */
+    public void executeSamples(List<PromptConstructorImpl> pcs) {
+        PromptInfo firstPromptInfo = pcs.get(0).getPromptInfo();
+        if (promptGenerator == null) {
+            setUp(firstPromptInfo);
         }
 
+        List<RoundRecord> records = new ArrayList<>();
+        for (PromptConstructorImpl pc : pcs) {
+            records.add(newRecord(pc.getPromptInfo(), 0));
+        }
+        config.getLogger().info("Generating " + pcs.size() + " tests for method < " + methodInfo.methodName + " > round 0 ...");
+
+        GeneratedPrompt prompt = buildPrompt(firstPromptInfo);
+        List<ChatResponse> samples = Collections.emptyList();
+        if (!isSkipped(prompt.messages, records.toArray(new RoundRecord[0]))) {
+            samples = ChatGenerator.chatSamples(config, prompt.messages, pcs.size());
+        }
+
+        for (int i = 0; i < pcs.size(); i++) {
+            PromptConstructorImpl pc = pcs.get(i);
+            RoundRecord record = records.get(i);
+            String code = i < samples.size() ? recordResponse(samples.get(i), prompt.messages, record) : "";
+            if (code.isEmpty()) {
+                record.setHasCode(false);
+                pc.getPromptInfo().setUnitTest("");
+                continue;
+            }
+            if (prompt.obfuscator != null) {
+                code = prompt.obfuscator.deobfuscateJava(code);
+            }
+            setUnitTest(pc, record, code);
+        }
+    }
+
+    private void setUnitTest(PromptConstructorImpl pc, RoundRecord record, String code) {
+        PromptInfo promptInfo = pc.getPromptInfo();
         if (CodeExtractor.isTestMethod(code)) {
             TestSkeleton skeleton = new TestSkeleton(promptInfo); // test skeleton to wrap a test method
             code = skeleton.build(code);
@@ -82,22 +149,67 @@ public class TestGeneration {
     }
 
     public String generateTest(List<ChatMessage> prompt, RoundRecord record) {
+        if (isSkipped(prompt, record)) {
+            return "";
+        }
+        ChatResponse response = ChatGenerator.chat(config, prompt);
+        return recordResponse(response, prompt, record);
+    }
+
+    /**
+     * Add the record of the round to the prompt info.
+     */
+    private RoundRecord newRecord(PromptInfo promptInfo, int round) {
+        promptInfo.addRecord(new RoundRecord(round));
+        RoundRecord record = promptInfo.getRecords().get(round);
+        record.setAttempt(promptInfo.getTestNum());
+        return record;
+    }
+
+    /**
+     * Generate the prompt of the prompt info, obfuscated when obfuscation is enabled.
+     */
+    private GeneratedPrompt buildPrompt(PromptInfo promptInfo) {
+        if (!config.isEnableObfuscate()) {
+            return new GeneratedPrompt(promptGenerator.generateMessages(promptInfo, config.getPhaseType()), null);
+        }
+        Obfuscator obfuscator = new Obfuscator(config);
+        PromptInfo obfuscatedPromptInfo = new PromptInfo(promptInfo);
+        obfuscator.obfuscatePromptInfo(obfuscatedPromptInfo);
+        return new GeneratedPrompt(promptGenerator.generateMessages(obfuscatedPromptInfo, config.getPhaseType()), obfuscator);
+    }
 
+    /**
+     * Check the prompt against the max prompt tokens, the records of a skipped prompt are marked without code.
+     */
+    private boolean isSkipped(List<ChatMessage> prompt, RoundRecord... records) {
+        // the context is already packed to the limit, only a focal method too long by itself is left
         if (MethodRunner.isExceedMaxTokens(config.getMaxPromptTokens(), prompt)) {
-            config.getLogger().error("Exceed max prompt tokens: " + methodInfo.methodName + " Skipped.");
-            record.setPromptToken(-1);
-            record.setHasCode(false);
-            return "";
+            config.getLogger().error("Exceed max prompt tokens without context: " + methodInfo.methodName + " Skipped.");
+            for (RoundRecord record : records) {
+                record.setPromptToken(-1);
+                record.setHasCode(false);
+            }
+            return true;
         }
         config.getLogger().debug("[Prompt]:\n" + prompt);
+        return false;
+    }
 
-        ChatResponse response = ChatGenerator.chat(config, prompt);
+    /**
+     * Record the response in the round record.
+     * @return the extracted code, empty if there is none
+     */
+    protected String recordResponse(ChatResponse response, List<ChatMessage> prompt, RoundRecord record) {
         String content = ChatGenerator.getContentByResponse(response);
         config.getLogger().debug("[Response]:\n" + content);
         String code = ChatGenerator.extractCodeByContent(content);
 
         record.setPromptToken(response.getUsage().getPromptTokens());
+        record.setCachedPromptToken(response.getUsage().getCachedTokens());
         record.setResponseToken(response.getUsage().getCompletionTokens());
+        record.setTimeToFirstToken(response.getTimeToFirstTokenMillis());
+        record.setTimeToCode(response.getTimeToCodeMillis());
         record.setPrompt(prompt);
         record.setResponse(content);
         if (code.isEmpty()) {
@@ -109,4 +221,17 @@ public class TestGeneration {
         return code;
     }
 
+    /**
+     * The messages of a prompt and the obfuscator to restore its test, null when not obfuscated.
+     */
+    private static class GeneratedPrompt {
+        private final List<ChatMessage> messages;
+        private final Obfuscator obfuscator;
+
+        private GeneratedPrompt(List<ChatMessage> messages, Obfuscator obfuscator) {
+            this.messages = messages;
+            this.obfuscator = obfuscator;
+        }
+    }
+
 }
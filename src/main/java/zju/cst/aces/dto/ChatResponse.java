@@ -13,6 +13,10 @@ public class ChatResponse {
     private String object;
     private ChatUsage usage;
     private List<ChatChoice> choices;
+    /** only set for streamed responses */
+    private Long timeToFirstTokenMillis;
+    /** time until the first complete code block, only set for streamed responses */
+    private Long timeToCodeMillis;
 
     public List<ChatMessage> getMessages() {
         if (this.choices == null || this.choices.isEmpty()) return Collections.emptyList();
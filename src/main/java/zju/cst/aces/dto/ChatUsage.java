@@ -11,4 +11,26 @@ public class ChatUsage {
     private Integer completionTokens;
     @SerializedName("total_tokens")
     private Integer totalTokens;
+    // prompt tokens served from the provider's prefix cache, reported by OpenAI-compatible apis
+    @SerializedName("prompt_tokens_details")
+    private PromptTokensDetails promptTokensDetails;
+    // the same count as reported by the DeepSeek api
+    @SerializedName("prompt_cache_hit_tokens")
+    private Integer promptCacheHitTokens;
+
+    /**
+     * Prompt tokens read from the prompt cache, 0 if the server does not report them.
+     */
+    public int getCachedTokens() {
+        if (promptTokensDetails != null && promptTokensDetails.getCachedTokens() != null) {
+            return promptTokensDetails.getCachedTokens();
+        }
+        return promptCacheHitTokens == null ? 0 : promptCacheHitTokens;
+    }
+
+    @Data
+    public static class PromptTokensDetails {
+        @SerializedName("cached_tokens")
+        private Integer cachedTokens;
+    }
 }
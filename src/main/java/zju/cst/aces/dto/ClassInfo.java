@@ -3,6 +3,7 @@ package zju.cst.aces.dto;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
 import lombok.Data;
+import zju.cst.aces.parser.SourceSnapshot;
 
 import java.util.List;
 import java.util.Map;
@@ -37,6 +38,9 @@ public class ClassInfo {
     public String compilationUnitCode;
     public String classDeclarationCode;
     public List<String> subClasses;
+    public SourceRef compilationUnitRef;
+    public SourceRef classDeclarationRef;
+    transient SourceSnapshot sourceSnapshot;
 
     public ClassInfo(CompilationUnit cu, ClassOrInterfaceDeclaration classNode, int index, String classSignature,
                      List<String> imports, List<String> fields, List<String> superClasses, Map<String, String> methodSigs,
@@ -69,6 +73,35 @@ public class ClassInfo {
         this.classDeclarationCode = classDeclarationCode;
     }
 
+    /**
+     * Keep references into the source snapshot instead of the code text.
+     */
+    public void setCodeRefs(SourceRef compilationUnitRef, SourceRef classDeclarationRef) {
+        this.compilationUnitRef = compilationUnitRef;
+        this.classDeclarationRef = classDeclarationRef;
+    }
+
+    /**
+     * Set the snapshot to read the code of the references from.
+     */
+    public void bindSource(SourceSnapshot sourceSnapshot) {
+        this.sourceSnapshot = sourceSnapshot;
+    }
+
+    public String getCompilationUnitCode() {
+        if (compilationUnitCode == null && compilationUnitRef != null && sourceSnapshot != null) {
+            return sourceSnapshot.getText(compilationUnitRef);
+        }
+        return compilationUnitCode;
+    }
+
+    public String getClassDeclarationCode() {
+        if (classDeclarationCode == null && classDeclarationRef != null && sourceSnapshot != null) {
+            return sourceSnapshot.getText(classDeclarationRef);
+        }
+        return classDeclarationCode;
+    }
+
     private String getPackageDeclaration(CompilationUnit compilationUnit) {
         if (compilationUnit.getPackageDeclaration().isPresent()) {
             return compilationUnit.getPackageDeclaration().get().toString().trim();
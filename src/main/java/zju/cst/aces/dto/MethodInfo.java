@@ -1,6 +1,7 @@
 package zju.cst.aces.dto;
 
 import lombok.Data;
+import zju.cst.aces.parser.SourceSnapshot;
 
 import java.util.List;
 import java.util.Map;
@@ -26,6 +27,9 @@ public class MethodInfo {
     public String method_annotation;
     public String methodDescriptor;
     public String dependent_classes;
+    public SourceRef sourceCodeRef;
+    public SourceRef fullMethodInfoRef;
+    transient SourceSnapshot sourceSnapshot;
 
     public MethodInfo(String className, String methodName, String brief, String methodSignature,
                       String sourceCode, List<String> parameters, Map<String, Set<String>> dependentMethods,String full_method_info,String method_comment,String method_annotation, String methodDescriptor){
@@ -72,4 +76,32 @@ public class MethodInfo {
         this.dependent_classes = dependent_classes;
     }
 
+    /**
+     * Keep references into the source snapshot instead of the code text.
+     */
+    public void setCodeRefs(SourceRef sourceCodeRef, SourceRef fullMethodInfoRef) {
+        this.sourceCodeRef = sourceCodeRef;
+        this.fullMethodInfoRef = fullMethodInfoRef;
+    }
+
+    /**
+     * Set the snapshot to read the code of the references from.
+     */
+    public void bindSource(SourceSnapshot sourceSnapshot) {
+        this.sourceSnapshot = sourceSnapshot;
+    }
+
+    public String getSourceCode() {
+        if (sourceCode == null && sourceCodeRef != null && sourceSnapshot != null) {
+            return sourceSnapshot.getText(sourceCodeRef);
+        }
+        return sourceCode;
+    }
+
+    public String getFull_method_info() {
+        if (full_method_info == null && fullMethodInfoRef != null && sourceSnapshot != null) {
+            return sourceSnapshot.getText(fullMethodInfoRef);
+        }
+        return full_method_info;
+    }
 }
@@ -14,7 +14,7 @@ public class OCM {
         ocm = new HashMap<>();
     }
 
-    public void add(String typeName, String className, String methodName, int lineNum, String code) {
+    public synchronized void add(String typeName, String className, String methodName, int lineNum, String code) {
         TreeSet<OCC> invocations = ocm.computeIfAbsent(typeName, k -> new TreeSet<>(new LengthComparator()));
         invocations.add(new OCC(className, methodName, lineNum, code));
         ocm.put(typeName, invocations);
@@ -149,6 +149,14 @@ public class PromptInfo {
         return tokenSum;
     }
 
+    public Integer getCachedInputTokenCount() {
+        Integer tokenSum = 0;
+        for (RoundRecord r : records) {
+            tokenSum += r.getCachedPromptToken();
+        }
+        return tokenSum;
+    }
+
     public Integer getOutputTokenCount() {
         Integer tokenSum = 0;
         for (RoundRecord r : records) {
@@ -11,7 +11,10 @@ public class RoundRecord {
     public List<ChatMessage> prompt;
     public String response;
     public int promptToken;
+    public int cachedPromptToken;
     public int responseToken;
+    public Long timeToFirstToken;
+    public Long timeToCode;
     public boolean hasCode;
     public String code;
     public boolean hasError;
@@ -0,0 +1,19 @@
+package zju.cst.aces.dto;
+
+import lombok.Data;
+
+/**
+ * Reference to a piece of source code in the source snapshot: [begin, end) byte offsets in the file.
+ */
+@Data
+public class SourceRef {
+    public int fileId;
+    public int begin;
+    public int end;
+
+    public SourceRef(int fileId, int begin, int end) {
+        this.fileId = fileId;
+        this.begin = begin;
+        this.end = end;
+    }
+}
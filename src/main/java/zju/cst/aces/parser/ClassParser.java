@@ -14,6 +14,7 @@ import com.github.javaparser.ast.nodeTypes.NodeWithSimpleName;
 import com.github.javaparser.ast.stmt.ExpressionStmt;
 import com.github.javaparser.ast.stmt.ReturnStmt;
 import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.type.Type;
 import com.github.javaparser.resolution.declarations.ResolvedMethodDeclaration;
 import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
 import com.github.javaparser.resolution.types.ResolvedReferenceType;
@@ -27,6 +28,7 @@ import zju.cst.aces.api.Project;
 import zju.cst.aces.dto.ClassInfo;
 import zju.cst.aces.dto.MethodInfo;
 import zju.cst.aces.dto.OCM;
+import zju.cst.aces.util.Counter;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -40,16 +42,24 @@ import java.util.stream.Stream;
 
 public class ClassParser {
     private static final String separator = "_";
-    private static Path classOutputPath;
-    private static ClassInfo classInfo;
-    private static JavaParser parser;
+    private Path classOutputPath;
+    private ClassInfo classInfo;
+    private JavaParser parser;
     public int methodCount = 0;
+    public List<String> parsedClasses = new ArrayList<>();
+    public List<String> mappingKeys = new ArrayList<>();
+    public List<JobManifest.ClassJob> classJobs = new ArrayList<>();
     Project project;
     Logger logger;
     Gson GSON;
     AtomicInteger sharedInteger;
     Map<String, Map<String, String>> classMapping;
     OCM ocm;
+    ParseInfoStore parseStore;
+    boolean exportJson = true;
+    ResolutionCache resolutionCache = new ResolutionCache();
+    SourceSnapshot.SourceFile sourceFile;
+    private JobManifest.ClassJob classJob;
 
     public ClassParser(JavaParser javaParser, Project project, Path path,
                        Logger logger, Gson gson, AtomicInteger sharedInteger,
@@ -64,6 +74,28 @@ public class ClassParser {
         this.ocm = ocm;
     }
 
+    /**
+     * Also write the parse output to the single-file store, json files are skipped if exportJson is false.
+     */
+    public void setParseStore(ParseInfoStore parseStore, boolean exportJson) {
+        this.parseStore = parseStore;
+        this.exportJson = exportJson || parseStore == null;
+    }
+
+    /**
+     * Share the symbol resolution cache with the other class parsers of the parse run.
+     */
+    public void setResolutionCache(ResolutionCache resolutionCache) {
+        this.resolutionCache = resolutionCache;
+    }
+
+    /**
+     * Keep references into the source snapshot instead of the code text in the parse records.
+     */
+    public void setSourceFile(SourceSnapshot.SourceFile sourceFile) {
+        this.sourceFile = sourceFile;
+    }
+
     public int extractClass(String classPath) throws FileNotFoundException {
         File file = new File(classPath);
         ParseResult<CompilationUnit> parseResult = parser.parse(file);
@@ -74,8 +106,12 @@ public class ClassParser {
             try {
                 classInfo = getInfoByClass(cu, classDeclaration);
                 exportClassInfo(classInfo, classDeclaration);
+                classJob = Counter.filter(classInfo) ? new JobManifest.ClassJob(classInfo.fullClassName) : null;
                 extractConstructors(cu, classDeclaration);
                 extractMethods(cu, classDeclaration);
+                if (classJob != null) {
+                    classJobs.add(classJob);
+                }
 
                 addClassMapping(classInfo);
                 methodCount += classDeclaration.getMethods().size();
@@ -92,8 +128,12 @@ public class ClassParser {
             try {
                 classInfo = getInfoByClass(cu, classDeclaration);
                 exportClassInfo(classInfo, classDeclaration);
+                classJob = Counter.filter(classInfo) ? new JobManifest.ClassJob(classInfo.fullClassName) : null;
                 extractConstructors(cu, classDeclaration);
                 extractMethods(cu, classDeclaration);
+                if (classJob != null) {
+                    classJobs.add(classJob);
+                }
 
                 addClassMapping(classInfo);
                 methodCount += classDeclaration.getMethods().size();
@@ -115,6 +155,7 @@ public class ClassParser {
             if (m.hasRange()) {
                 MethodInfo info = getInfoByMethod(cu, classDeclaration, m);
                 exportMethodInfo(info, classDeclaration, m);
+                addMethodJob(info, m);
             }
         }
     }
@@ -129,6 +170,19 @@ public class ClassParser {
         }
     }
 
+    /**
+     * Record the method in the job manifest if it passes the method filter.
+     */
+    private void addMethodJob(MethodInfo info, CallableDeclaration node) {
+        if (classJob == null || !Counter.filter(info)) {
+            return;
+        }
+        String mSig = node.getSignature().asString();
+        int lines = node.getRange().map(r -> r.end.line - r.begin.line + 1).orElse(0);
+        classJob.methods.add(new JobManifest.MethodJob(mSig, classInfo.methodSigs.get(mSig), lines,
+                node.getParameters().size(), JobManifest.MethodJob.countDependencies(info)));
+    }
+
     /**
      * Extract class information to json format
      */
@@ -156,7 +210,11 @@ public class ClassParser {
 //        ci.setPublic(!classNode.isPrivate() && !classNode.isProtected());
         ci.setAbstract(classNode.isAbstract());
         ci.setInterface(classNode.isInterface());
-        ci.setCode(cu.toString(), classNode.toString());
+        if (sourceFile != null) {
+            ci.setCodeRefs(sourceFile.whole(), sourceFile.withComment(classNode));
+        } else {
+            ci.setCode(cu.toString(), classNode.toString());
+        }
         ci.setFullClassName(
                 cu.getPackageDeclaration()
                         .orElseThrow(() -> new NoSuchElementException("Package declaration not present"))
@@ -176,14 +234,17 @@ public class ClassParser {
                 node.getNameAsString(),
                 getBriefMethod(cu, node),
                 getMethodSig(node),
-                getMethodCode(cu, node),
+                sourceFile == null ? getMethodCode(cu, node) : null,
                 getParameters(node),
                 getDependentMethods(cu, node),
-                node.toString(),
+                sourceFile == null ? node.toString() : null,
                 getMethodComment(node),
                 getMethodAnnotation(node),
                 getMethodDescriptor(node)
         );
+        if (sourceFile != null) {
+            mi.setCodeRefs(sourceFile.of(node), sourceFile.withComment(node));
+        }
         mi.setUseField(useField(node));
         mi.setConstructor(node.isConstructorDeclaration());
         mi.setGetSet(isGetSet2(node));
@@ -202,14 +263,15 @@ public class ClassParser {
 
         // Add parameter types
         for (Parameter param : node.getParameters()) {
-            descriptor.append(toJVMDescriptor(param.getType().resolve().describe()));
+            descriptor.append(toJVMDescriptor(resolveType(param, param.getType())));
         }
 
         descriptor.append(")");
 
         // Add return type
         if (node instanceof MethodDeclaration) {
-            descriptor.append(toJVMDescriptor(((MethodDeclaration) node).getType().resolve().describe()));
+            Type returnType = ((MethodDeclaration) node).getType();
+            descriptor.append(toJVMDescriptor(resolveType(node, returnType)));
         } else {
             descriptor.append("V"); // Constructors return void
         }
@@ -321,11 +383,23 @@ public class ClassParser {
                 .orElseThrow(() -> new NoSuchElementException("Fully qualified name not present"))
                 .toString();
 
-        List<String> subClasses = new ArrayList<>();
+        Map<String, List<String>> subClassIndex = resolutionCache.getSubClassIndex(this::buildSubClassIndex);
+        if (subClassIndex == null) {
+            return null;
+        }
+        return new ArrayList<>(subClassIndex.getOrDefault(targetClassName, Collections.emptyList()));
+    }
+
+    /**
+     * Parse the project once to map each super class name to its sub classes.
+     * @return null if no source file is found
+     */
+    private Map<String, List<String>> buildSubClassIndex() {
         List<String> classPaths = ProjectParser.scanSourceDirectory(this.project);
         if (classPaths.isEmpty()) {
             return null;
         }
+        Map<String, List<String>> subClassIndex = new HashMap<>();
         try {
             for (String classPath : classPaths) {
                 ParseResult<CompilationUnit> parseResult = parser.parse(new File(classPath));
@@ -335,21 +409,17 @@ public class ClassParser {
                 List<ClassOrInterfaceDeclaration> classes = cu.findAll(ClassOrInterfaceDeclaration.class);
                 for (ClassOrInterfaceDeclaration classDeclaration : classes) {
                     for (ClassOrInterfaceType extendedType : classDeclaration.getExtendedTypes()) {
-                        if (targetClassName.equals(packageName + "." + extendedType.getNameAsString())) {
-                            subClasses.add(
-                                    classDeclaration.getFullyQualifiedName()
-                                            .orElseThrow(() -> new NoSuchElementException("Fully qualified name not present"))
-                                            .toString()
-                            );
-
-                        }
+                        subClassIndex.computeIfAbsent(packageName + "." + extendedType.getNameAsString(), k -> new ArrayList<>())
+                                .add(classDeclaration.getFullyQualifiedName()
+                                        .orElseThrow(() -> new NoSuchElementException("Fully qualified name not present"))
+                                        .toString());
                     }
                 }
             }
         } catch (FileNotFoundException e) {
             throw new RuntimeException(e);
         }
-        return subClasses;
+        return subClassIndex;
     }
 
     private List<String> getInterfaces(ClassOrInterfaceDeclaration node) {
@@ -609,7 +679,8 @@ public class ClassParser {
                     continue;
                 }
                 if (p.getType().isArrayType()) {
-                    String dependentType = p.resolve().getType().asArrayType().getComponentType().describe();
+                    String dependentType = resolutionCache.resolve(ResolutionCache.typeKey(p, p.getType(), "component"),
+                            () -> p.resolve().getType().asArrayType().getComponentType().describe());
                     dependentMethods.put(dependentType, new HashSet<String>());
                     continue;
                 } else if (p.getTypeAsString().split("<")[0].endsWith("Map")
@@ -617,7 +688,8 @@ public class ClassParser {
                         || p.getTypeAsString().split("<")[0].endsWith("Set")) {
                     continue;
                 } else if (p.getType().getChildNodes().size() == 1) {
-                    String dependentType = p.resolve().describeType();
+                    String dependentType = resolutionCache.resolve(ResolutionCache.typeKey(p, p.getType(), "param"),
+                            () -> p.resolve().describeType());
                     dependentMethods.put(dependentType, new HashSet<String>());
                 }
             } catch (Exception e) {
@@ -642,6 +714,13 @@ public class ClassParser {
         return dependentMethods;
     }
 
+    /**
+     * Resolve the type used in the node and describe it, memoized per declaring type unless the name is shadowed.
+     */
+    private String resolveType(Node node, Type type) {
+        return resolutionCache.resolve(ResolutionCache.typeKey(node, type, "type"), () -> type.resolve().describe());
+    }
+
     private static String getParamTypeInSig(ResolvedMethodDeclaration md) {
         String sig = md.getName() + "(";
         for (int i = 0; i < md.getNumberOfParams(); i++) {
@@ -701,6 +780,12 @@ public class ClassParser {
     }
 
     private void exportClassInfo(ClassInfo classInfo, ClassOrInterfaceDeclaration classNode) throws IOException {
+        if (parseStore != null) {
+            parseStore.putClassInfo(classInfo);
+        }
+        if (!exportJson) {
+            return;
+        }
         Path classOutputDir = classOutputPath.resolve(classNode.getName().getIdentifier());
         if (!Files.exists(classOutputDir)) {
             Files.createDirectories(classOutputDir);
@@ -713,6 +798,12 @@ public class ClassParser {
     }
 
     private void exportMethodInfo(MethodInfo methodInfo, ClassOrInterfaceDeclaration classNode, MethodDeclaration node) throws IOException {
+        if (parseStore != null) {
+            parseStore.putMethodInfo(classInfo.fullClassName, node.getSignature().asString(), methodInfo);
+        }
+        if (!exportJson) {
+            return;
+        }
         Path classOutputDir = classOutputPath.resolve(classNode.getName().getIdentifier());
         if (!Files.exists(classOutputDir)) {
             Files.createDirectories(classOutputDir);
@@ -725,6 +816,12 @@ public class ClassParser {
     }
 
     private void exportConstructorInfo(MethodInfo methodInfo, ClassOrInterfaceDeclaration classNode, ConstructorDeclaration node) throws IOException {
+        if (parseStore != null) {
+            parseStore.putMethodInfo(classInfo.fullClassName, node.getSignature().asString(), methodInfo);
+        }
+        if (!exportJson) {
+            return;
+        }
         Path classOutputDir = classOutputPath.resolve(classNode.getName().getIdentifier());
         if (!Files.exists(classOutputDir)) {
             Files.createDirectories(classOutputDir);
@@ -773,6 +870,8 @@ public class ClassParser {
             this.classMapping = new LinkedHashMap<>();
         }
         this.classMapping.put("class" + classInfo.index, map);
+        parsedClasses.add(classInfo.fullClassName);
+        mappingKeys.add("class" + classInfo.index);
     }
 
     /**
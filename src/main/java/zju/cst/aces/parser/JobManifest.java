@@ -0,0 +1,138 @@
+package zju.cst.aces.parser;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import zju.cst.aces.dto.ClassInfo;
+import zju.cst.aces.dto.MethodInfo;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The classes and methods to generate tests for, after the class and method filters of the Counter,
+ * emitted once by the preparation so scheduling and progress counting do not read the parse records.
+ */
+public class JobManifest {
+    private final Map<String, ClassJob> classJobs;
+
+    public JobManifest() {
+        this.classJobs = new TreeMap<>();
+    }
+
+    private JobManifest(Map<String, ClassJob> classJobs) {
+        this.classJobs = new TreeMap<>(classJobs);
+    }
+
+    /**
+     * Load the manifest from the json file.
+     * @return null if the file does not exist
+     */
+    public static JobManifest load(Path manifestPath, Gson gson) throws IOException {
+        if (!Files.exists(manifestPath)) {
+            return null;
+        }
+        Map<String, ClassJob> classJobs = gson.fromJson(new String(Files.readAllBytes(manifestPath), StandardCharsets.UTF_8),
+                new TypeToken<Map<String, ClassJob>>() {}.getType());
+        return new JobManifest(classJobs == null ? Collections.emptyMap() : classJobs);
+    }
+
+    public void save(Path manifestPath, Gson gson) throws IOException {
+        Files.createDirectories(manifestPath.getParent());
+        try (OutputStreamWriter writer = new OutputStreamWriter(Files.newOutputStream(manifestPath), StandardCharsets.UTF_8)) {
+            writer.write(gson.toJson(classJobs));
+        }
+    }
+
+    /**
+     * @return null if the class is filtered out or not parsed
+     */
+    public ClassJob get(String fullClassName) {
+        return classJobs.get(fullClassName);
+    }
+
+    public void put(ClassJob classJob) {
+        classJobs.put(classJob.fullClassName, classJob);
+    }
+
+    public void remove(String fullClassName) {
+        classJobs.remove(fullClassName);
+    }
+
+    public Collection<ClassJob> getClassJobs() {
+        return classJobs.values();
+    }
+
+    public int getClassCount() {
+        return classJobs.size();
+    }
+
+    public int getMethodCount() {
+        return classJobs.values().stream().mapToInt(c -> c.methods.size()).sum();
+    }
+
+    /**
+     * Class name -> method signatures, the format of tasklist.json.
+     */
+    public Map<String, List<String>> toTaskList() {
+        Map<String, List<String>> taskList = new LinkedHashMap<>();
+        for (ClassJob classJob : classJobs.values()) {
+            List<String> methodSigs = new ArrayList<>();
+            for (MethodJob methodJob : classJob.methods) {
+                methodSigs.add(methodJob.signature);
+            }
+            taskList.put(classJob.fullClassName, methodSigs);
+        }
+        return taskList;
+    }
+
+    public static class ClassJob {
+        public String fullClassName;
+        /**
+         * focal methods in the order they are declared in the class, as in ClassInfo.methodSigs,
+         * constructors are filtered out and never listed
+         */
+        public List<MethodJob> methods = new ArrayList<>();
+
+        public ClassJob(String fullClassName) {
+            this.fullClassName = fullClassName;
+        }
+    }
+
+    public static class MethodJob {
+        public String signature;
+        /** file name of the method info, the value of ClassInfo.methodSigs */
+        public String methodId;
+        public int lines;
+        public int parameters;
+        public int dependencies;
+
+        public MethodJob(String signature, String methodId, int lines, int parameters, int dependencies) {
+            this.signature = signature;
+            this.methodId = methodId;
+            this.lines = lines;
+            this.parameters = parameters;
+            this.dependencies = dependencies;
+        }
+
+        /**
+         * Create the job of a parsed method, lines are counted from the source code.
+         */
+        public static MethodJob of(ClassInfo classInfo, String mSig, MethodInfo methodInfo) {
+            String sourceCode = methodInfo.getSourceCode();
+            int lines = sourceCode == null || sourceCode.isEmpty() ? 0 : sourceCode.split("\r\n|\r|\n", -1).length;
+            return new MethodJob(mSig, classInfo.methodSigs.get(mSig), lines,
+                    methodInfo.parameters == null ? 0 : methodInfo.parameters.size(), countDependencies(methodInfo));
+        }
+
+        public static int countDependencies(MethodInfo methodInfo) {
+            if (methodInfo.dependentMethods == null) {
+                return 0;
+            }
+            return methodInfo.dependentMethods.values().stream().mapToInt(Set::size).sum();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package zju.cst.aces.parser;
+
+import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
+import com.github.javaparser.symbolsolver.model.resolution.SymbolReference;
+import com.github.javaparser.symbolsolver.model.resolution.TypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.JarTypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import zju.cst.aces.api.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Type solver over the dependency jars that only opens a jar when a type of a package it contains is looked up.
+ * The package -> jar index is persisted as json, an entry is reused while the jar path and modification time match.
+ * Instances are shared between modules with the same dependency jars. The opened jars and their caches are not
+ * thread-safe, a thread of its own uses a fork, which only shares the package index.
+ */
+public class LazyJarTypeSolver implements TypeSolver {
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    private static final Map<String, LazyJarTypeSolver> SHARED = new ConcurrentHashMap<>();
+
+    private final List<String> jarPaths;
+    private final Path indexPath;
+    private final Logger logger;
+    /** the solver that builds and keeps the package index, this one unless forked */
+    private final LazyJarTypeSolver indexOwner;
+    private volatile Map<String, List<String>> packageIndex;
+    private final Map<String, Optional<JarTypeSolver>> openedJars = new ConcurrentHashMap<>();
+    private final CombinedTypeSolver jarRoot;
+    private TypeSolver parent;
+
+    private LazyJarTypeSolver(List<String> jarPaths, Path indexPath, Logger logger, LazyJarTypeSolver indexOwner) {
+        this.jarPaths = jarPaths;
+        this.indexPath = indexPath;
+        this.logger = logger;
+        this.indexOwner = indexOwner == null ? this : indexOwner;
+        // jar types are resolved against the jdk and the other jars, independent of the module using this solver
+        this.jarRoot = new CombinedTypeSolver();
+        this.jarRoot.add(new ReflectionTypeSolver());
+        this.jarRoot.add(new JarLookup());
+    }
+
+    /**
+     * Get the solver over the existing jars in the class paths, shared by all callers with the same jars.
+     * @param indexPath file of the persisted index, used by the first caller with these jars
+     */
+    public static LazyJarTypeSolver getShared(List<String> classPaths, Path indexPath, Logger logger) {
+        List<String> jarPaths = new ArrayList<>();
+        for (String classPath : classPaths) {
+            if (classPath.endsWith("jar") && new File(classPath).exists()) {
+                jarPaths.add(classPath);
+            }
+        }
+        String key = String.join(File.pathSeparator, jarPaths);
+        return SHARED.computeIfAbsent(key, k -> new LazyJarTypeSolver(jarPaths, indexPath, logger, null));
+    }
+
+    /**
+     * Create a solver over the same jars for one thread, with its own opened jars and jar root.
+     * Only the package index, read-only once built, is shared with this solver.
+     */
+    public LazyJarTypeSolver fork() {
+        return new LazyJarTypeSolver(jarPaths, indexPath, logger, indexOwner);
+    }
+
+    @Override
+    public TypeSolver getParent() {
+        return parent;
+    }
+
+    /**
+     * The solver is shared between modules, the parent is only recorded and not used to resolve jar types.
+     */
+    @Override
+    public void setParent(TypeSolver parent) {
+        this.parent = parent;
+    }
+
+    @Override
+    public SymbolReference<ResolvedReferenceTypeDeclaration> tryToSolveType(String name) {
+        Map<String, List<String>> index = getPackageIndex();
+        // the package is the longest prefix in the index, the rest may be nested class names
+        String packageName = name;
+        while (packageName.contains(".")) {
+            packageName = packageName.substring(0, packageName.lastIndexOf('.'));
+            List<String> jars = index.get(packageName);
+            if (jars == null) {
+                continue;
+            }
+            for (String jarPath : jars) {
+                Optional<JarTypeSolver> jarSolver = openJar(jarPath);
+                if (!jarSolver.isPresent()) {
+                    continue;
+                }
+                SymbolReference<ResolvedReferenceTypeDeclaration> ref = jarSolver.get().tryToSolveType(name);
+                if (ref.isSolved()) {
+                    return ref;
+                }
+            }
+        }
+        return SymbolReference.unsolved(ResolvedReferenceTypeDeclaration.class);
+    }
+
+    public int getJarCount() {
+        return jarPaths.size();
+    }
+
+    public int getOpenedJarCount() {
+        return openedJars.size();
+    }
+
+    private Optional<JarTypeSolver> openJar(String jarPath) {
+        return openedJars.computeIfAbsent(jarPath, path -> {
+            try {
+                JarTypeSolver jarSolver = new JarTypeSolver(path);
+                jarSolver.setParent(jarRoot);
+                return Optional.of(jarSolver);
+            } catch (Exception e) {
+                logger.warn("Failed to open dependency jar " + path + ": " + e.getMessage());
+                return Optional.empty();
+            }
+        });
+    }
+
+    private Map<String, List<String>> getPackageIndex() {
+        if (indexOwner != this) {
+            return indexOwner.getPackageIndex();
+        }
+        Map<String, List<String>> index = packageIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = packageIndex;
+                if (index == null) {
+                    index = buildPackageIndex();
+                    packageIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Build the package -> jars index, only jars changed since the last run are scanned.
+     */
+    private Map<String, List<String>> buildPackageIndex() {
+        Map<String, JarPackages> persisted = loadPersistedIndex();
+        Map<String, JarPackages> current = new LinkedHashMap<>();
+        boolean changed = false;
+        for (String jarPath : jarPaths) {
+            long lastModified = new File(jarPath).lastModified();
+            JarPackages jarPackages = persisted.get(jarPath);
+            if (jarPackages == null || jarPackages.lastModified != lastModified) {
+                jarPackages = new JarPackages(lastModified, scanPackages(jarPath));
+                changed = true;
+            }
+            current.put(jarPath, jarPackages);
+        }
+        if (changed) {
+            // keep the entries of jars used by other modules sharing the index file
+            persisted.putAll(current);
+            savePersistedIndex(persisted);
+        }
+
+        Map<String, List<String>> index = new HashMap<>();
+        for (Map.Entry<String, JarPackages> entry : current.entrySet()) {
+            for (String packageName : entry.getValue().packages) {
+                index.computeIfAbsent(packageName, k -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+        return Collections.unmodifiableMap(index);
+    }
+
+    private static Set<String> scanPackages(String jarPath) {
+        Set<String> packages = new TreeSet<>();
+        try (ZipFile zipFile = new ZipFile(jarPath)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                String entryName = entries.nextElement().getName();
+                if (!entryName.endsWith(".class") || entryName.startsWith("META-INF/")) {
+                    continue;
+                }
+                int index = entryName.lastIndexOf('/');
+                packages.add(index < 0 ? "" : entryName.substring(0, index).replace('/', '.'));
+            }
+        } catch (IOException e) {
+            // unreadable jar, nothing can be resolved from it
+        }
+        return packages;
+    }
+
+    private Map<String, JarPackages> loadPersistedIndex() {
+        if (indexPath == null || !Files.exists(indexPath)) {
+            return new HashMap<>();
+        }
+        try {
+            Map<String, JarPackages> persisted = GSON.fromJson(new String(Files.readAllBytes(indexPath), StandardCharsets.UTF_8),
+                    new TypeToken<Map<String, JarPackages>>() {}.getType());
+            return persisted == null ? new HashMap<>() : new HashMap<>(persisted);
+        } catch (Exception e) {
+            logger.warn("Failed to load dependency index " + indexPath + ": " + e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    private void savePersistedIndex(Map<String, JarPackages> persisted) {
+        if (indexPath == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(indexPath.getParent());
+            Path tmpPath = Files.createTempFile(indexPath.getParent(), indexPath.getFileName().toString(), ".tmp");
+            try (OutputStreamWriter writer = new OutputStreamWriter(Files.newOutputStream(tmpPath), StandardCharsets.UTF_8)) {
+                writer.write(GSON.toJson(persisted));
+            }
+            Files.move(tmpPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Failed to save dependency index " + indexPath + ": " + e.getMessage());
+        }
+    }
+
+    private static class JarPackages {
+        long lastModified;
+        Set<String> packages;
+
+        JarPackages(long lastModified, Set<String> packages) {
+            this.lastModified = lastModified;
+            this.packages = packages;
+        }
+    }
+
+    /**
+     * Entry of the jar root solver, resolves types of the other jars through the package index.
+     */
+    private class JarLookup implements TypeSolver {
+        private TypeSolver parent;
+
+        @Override
+        public TypeSolver getParent() {
+            return parent;
+        }
+
+        @Override
+        public void setParent(TypeSolver parent) {
+            this.parent = parent;
+        }
+
+        @Override
+        public SymbolReference<ResolvedReferenceTypeDeclaration> tryToSolveType(String name) {
+            return LazyJarTypeSolver.this.tryToSolveType(name);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package zju.cst.aces.parser;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import zju.cst.aces.dto.ClassInfo;
+import zju.cst.aces.dto.MethodInfo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single-file store of the parse output, an alternative to one json file per class and per method.
+ * Records are appended to one data file and located through an in-memory offset index,
+ * reads go through a memory-mapped view of the data file.
+ * <p>
+ * Data record: [int keyLength][key][int valueLength][value], key and value are utf-8,
+ * the value is the compact json of the ClassInfo / MethodInfo. A valueLength of -1 marks a removed key.
+ * <p>
+ * Index file: [long dataLength][int count] and per record [int keyLength][key][long offset][int length].
+ * The index is rebuilt by scanning the data file if it is missing or out of date.
+ */
+public class ParseInfoStore implements Closeable {
+    public static final String DATA_FILE = "class-info.dat";
+    public static final String INDEX_FILE = "class-info.idx";
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    private static final String METHOD_SEPARATOR = "#";
+    private static final int REMOVED = -1;
+
+    private final Path dataPath;
+    private final Path indexPath;
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private FileChannel channel;
+    private volatile MappedByteBuffer mapped;
+    private boolean dirty = false;
+
+    private ParseInfoStore(Path dir) {
+        this.dataPath = dir.resolve(DATA_FILE);
+        this.indexPath = dir.resolve(INDEX_FILE);
+    }
+
+    /**
+     * Open the store in the directory, create it if not exists.
+     */
+    public static ParseInfoStore open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        ParseInfoStore store = new ParseInfoStore(dir);
+        store.channel = FileChannel.open(store.dataPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        store.loadIndex();
+        return store;
+    }
+
+    public static boolean exists(Path dir) {
+        return Files.exists(dir.resolve(DATA_FILE));
+    }
+
+    public static String classKey(String fullClassName) {
+        return fullClassName;
+    }
+
+    public static String methodKey(String fullClassName, String methodSig) {
+        return fullClassName + METHOD_SEPARATOR + methodSig;
+    }
+
+    public void putClassInfo(ClassInfo classInfo) throws IOException {
+        put(classKey(classInfo.fullClassName), GSON.toJson(classInfo));
+    }
+
+    public void putMethodInfo(String fullClassName, String methodSig, MethodInfo methodInfo) throws IOException {
+        put(methodKey(fullClassName, methodSig), GSON.toJson(methodInfo));
+    }
+
+    public ClassInfo getClassInfo(String fullClassName) throws IOException {
+        String json = get(classKey(fullClassName));
+        return json == null ? null : GSON.fromJson(json, ClassInfo.class);
+    }
+
+    public MethodInfo getMethodInfo(String fullClassName, String methodSig) throws IOException {
+        String json = get(methodKey(fullClassName, methodSig));
+        return json == null ? null : GSON.fromJson(json, MethodInfo.class);
+    }
+
+    /**
+     * Get full class names of all classes in the store, sorted.
+     */
+    public Set<String> getClassNames() {
+        Set<String> classNames = new TreeSet<>();
+        for (String key : index.keySet()) {
+            if (!key.contains(METHOD_SEPARATOR)) {
+                classNames.add(key);
+            }
+        }
+        return classNames;
+    }
+
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Append a record, a later record overrides the earlier one with the same key.
+     */
+    public synchronized void put(String key, String value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + keyBytes.length + valueBytes.length);
+        buffer.putInt(keyBytes.length).put(keyBytes).putInt(valueBytes.length).put(valueBytes);
+        buffer.flip();
+        long offset = channel.size();
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        index.put(key, new Entry(offset + 8 + keyBytes.length, valueBytes.length));
+        dirty = true;
+    }
+
+    /**
+     * Append a removal record for the key.
+     */
+    public synchronized void remove(String key) throws IOException {
+        if (!index.containsKey(key)) {
+            return;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + keyBytes.length);
+        buffer.putInt(keyBytes.length).put(keyBytes).putInt(REMOVED);
+        buffer.flip();
+        long position = channel.size();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        index.remove(key);
+        dirty = true;
+    }
+
+    /**
+     * Remove the class and all its methods.
+     */
+    public synchronized void removeClass(String fullClassName) throws IOException {
+        String methodPrefix = fullClassName + METHOD_SEPARATOR;
+        for (String key : new ArrayList<>(index.keySet())) {
+            if (key.startsWith(methodPrefix)) {
+                remove(key);
+            }
+        }
+        remove(classKey(fullClassName));
+    }
+
+    public String get(String key) throws IOException {
+        Entry entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        byte[] bytes = new byte[entry.length];
+        ByteBuffer view = getView(entry.offset + entry.length);
+        if (view != null) {
+            view.position((int) entry.offset);
+            view.get(bytes);
+        } else {
+            readFully(ByteBuffer.wrap(bytes), entry.offset);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Remove all records.
+     */
+    public synchronized void clear() throws IOException {
+        channel.truncate(0);
+        index.clear();
+        mapped = null;
+        dirty = true;
+    }
+
+    /**
+     * Write the index file if records have been appended since the last flush.
+     */
+    public synchronized void flush() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        channel.force(false);
+        Path tmpPath = indexPath.resolveSibling(INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+            out.writeLong(channel.size());
+            out.writeInt(index.size());
+            for (Map.Entry<String, Entry> e : index.entrySet()) {
+                byte[] keyBytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(keyBytes.length);
+                out.write(keyBytes);
+                out.writeLong(e.getValue().offset);
+                out.writeInt(e.getValue().length);
+            }
+        }
+        Files.move(tmpPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+        dirty = false;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        flush();
+        channel.close();
+        mapped = null;
+    }
+
+    /**
+     * Get a view of the mapped data file covering at least [0, end), remap if the file has grown.
+     * @return null if the data file is too large to be mapped at once
+     */
+    private ByteBuffer getView(long end) throws IOException {
+        MappedByteBuffer current = mapped;
+        if (current == null || current.capacity() < end) {
+            synchronized (this) {
+                current = mapped;
+                if (current == null || current.capacity() < end) {
+                    long size = channel.size();
+                    if (size > Integer.MAX_VALUE) {
+                        return null;
+                    }
+                    current = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    mapped = current;
+                }
+            }
+        }
+        return current.duplicate();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("In ParseInfoStore.readFully: unexpected end of " + dataPath);
+            }
+            position += n;
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        index.clear();
+        long dataLength = channel.size();
+        if (Files.exists(indexPath)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+                if (in.readLong() == dataLength) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        byte[] keyBytes = new byte[in.readInt()];
+                        in.readFully(keyBytes);
+                        index.put(new String(keyBytes, StandardCharsets.UTF_8), new Entry(in.readLong(), in.readInt()));
+                    }
+                    return;
+                }
+            } catch (IOException e) {
+                index.clear();
+            }
+        }
+        rebuildIndex();
+    }
+
+    /**
+     * Scan the data file to rebuild the index, a truncated record at the tail is dropped.
+     */
+    private void rebuildIndex() throws IOException {
+        index.clear();
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (position + 4 <= size) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int keyLength = header.getInt();
+            if (keyLength < 0 || position + 4 + keyLength + 4 > size) {
+                break;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            readFully(ByteBuffer.wrap(keyBytes), position + 4);
+            header.clear();
+            readFully(header, position + 4 + keyLength);
+            header.flip();
+            int valueLength = header.getInt();
+            long valueOffset = position + 8 + keyLength;
+            if (valueLength == REMOVED) {
+                index.remove(new String(keyBytes, StandardCharsets.UTF_8));
+                position = valueOffset;
+                continue;
+            }
+            if (valueLength < 0 || valueOffset + valueLength > size) {
+                break;
+            }
+            index.put(new String(keyBytes, StandardCharsets.UTF_8), new Entry(valueOffset, valueLength));
+            position = valueOffset + valueLength;
+        }
+        if (position < size) {
+            channel.truncate(position);
+        }
+        dirty = true;
+    }
+
+    private static class Entry {
+        final long offset;
+        final int length;
+
+        Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
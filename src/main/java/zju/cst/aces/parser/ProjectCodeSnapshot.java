@@ -0,0 +1,253 @@
+package zju.cst.aces.parser;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import zju.cst.aces.api.Project;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The source files of the project concatenated in one data file, with the offset of each file, for the prompts
+ * that show the whole project code. The code without the focal class is read from a memory-mapped view as the
+ * slices around the files of that class, instead of reading every source file for every prompt.
+ * <p>
+ * The snapshot is kept in the output directory and rebuilt when the content hash of a source file changes,
+ * or when a source file is added or removed.
+ */
+public class ProjectCodeSnapshot implements Closeable {
+    public static final String DATA_FILE = "project-code.dat";
+    public static final String INDEX_FILE = "project-code.json";
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    private static final byte[] SEPARATOR = "\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Path dataPath;
+    private final Path indexPath;
+    private final List<FileEntry> files = new ArrayList<>();
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private String lastClassName;
+    private String lastCode;
+
+    private ProjectCodeSnapshot(Path dir) {
+        this.dataPath = dir.resolve(DATA_FILE);
+        this.indexPath = dir.resolve(INDEX_FILE);
+    }
+
+    /**
+     * Open the snapshot of the source files of the project, rebuilt if a file changed since it was written.
+     */
+    public static ProjectCodeSnapshot open(Project project, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        ProjectCodeSnapshot snapshot = new ProjectCodeSnapshot(dir);
+        List<String> sourcePaths = ProjectParser.scanSourceDirectory(project);
+        // sorted, so the project code is the same text in every prompt
+        Collections.sort(sourcePaths);
+        if (!snapshot.load(sourcePaths)) {
+            snapshot.write(sourcePaths);
+        }
+        snapshot.channel = FileChannel.open(snapshot.dataPath, StandardOpenOption.READ);
+        if (snapshot.channel.size() <= Integer.MAX_VALUE) {
+            snapshot.mapped = snapshot.channel.map(FileChannel.MapMode.READ_ONLY, 0, snapshot.channel.size());
+        }
+        return snapshot;
+    }
+
+    public synchronized int size() {
+        return files.size();
+    }
+
+    /**
+     * Get the code of all the source files except the files of the class, each file followed by a new line.
+     * @param className simple name of the class, the files of that name are left out
+     */
+    public synchronized String getCodeWithout(String className) {
+        // the prompts of a class come one after another
+        if (className != null && className.equals(lastClassName)) {
+            return lastCode;
+        }
+        StringBuilder sb = new StringBuilder();
+        long begin = 0;
+        for (FileEntry file : files) {
+            if (!file.className.equals(className)) {
+                continue;
+            }
+            sb.append(read(begin, file.offset));
+            begin = file.offset + file.length + SEPARATOR.length;
+        }
+        sb.append(read(begin, getDataSize()));
+        lastClassName = className;
+        lastCode = sb.toString();
+        return lastCode;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mapped = null;
+        lastCode = null;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Load the index if the data file is there and every source file has the recorded content.
+     * @return false if the snapshot must be rebuilt
+     */
+    private boolean load(List<String> sourcePaths) throws IOException {
+        if (!Files.exists(indexPath) || !Files.exists(dataPath)) {
+            return false;
+        }
+        List<FileEntry> entries = GSON.fromJson(new String(Files.readAllBytes(indexPath), StandardCharsets.UTF_8),
+                new TypeToken<List<FileEntry>>() {}.getType());
+        if (entries == null || entries.size() != sourcePaths.size()) {
+            return false;
+        }
+        Map<String, FileEntry> byPath = new HashMap<>();
+        for (FileEntry entry : entries) {
+            byPath.put(entry.path, entry);
+        }
+        boolean touched = false;
+        for (String sourcePath : sourcePaths) {
+            FileEntry entry = byPath.get(sourcePath);
+            if (entry == null) {
+                return false;
+            }
+            Path path = Paths.get(sourcePath);
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            if (entry.lastModified == lastModified && entry.length == Files.size(path)) {
+                continue;
+            }
+            // a file that was only touched keeps its place in the data file
+            if (!entry.hash.equals(SourceManifest.hash(path))) {
+                return false;
+            }
+            entry.lastModified = lastModified;
+            touched = true;
+        }
+        long end = 0;
+        for (FileEntry entry : entries) {
+            end = Math.max(end, entry.offset + entry.length + SEPARATOR.length);
+        }
+        if (Files.size(dataPath) != end) {
+            return false;
+        }
+        files.addAll(entries);
+        if (touched) {
+            writeIndex();
+        }
+        return true;
+    }
+
+    private void write(List<String> sourcePaths) throws IOException {
+        files.clear();
+        Path tmpPath = dataPath.resolveSibling(DATA_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long offset = 0;
+            for (String sourcePath : sourcePaths) {
+                Path path = Paths.get(sourcePath);
+                byte[] bytes;
+                try {
+                    bytes = Files.readAllBytes(path);
+                } catch (IOException e) {
+                    // an unreadable file is left out of the project code, as before
+                    continue;
+                }
+                writeFully(out, ByteBuffer.wrap(bytes));
+                writeFully(out, ByteBuffer.wrap(SEPARATOR));
+                String fileName = path.getFileName().toString();
+                files.add(new FileEntry(sourcePath, fileName.substring(0, fileName.lastIndexOf('.')),
+                        SourceManifest.hash(bytes), Files.getLastModifiedTime(path).toMillis(), offset, bytes.length));
+                offset += bytes.length + SEPARATOR.length;
+            }
+            out.force(false);
+        }
+        Files.move(tmpPath, dataPath, StandardCopyOption.REPLACE_EXISTING);
+        writeIndex();
+    }
+
+    private void writeIndex() throws IOException {
+        Path tmpPath = indexPath.resolveSibling(INDEX_FILE + ".tmp");
+        try (OutputStreamWriter writer = new OutputStreamWriter(Files.newOutputStream(tmpPath), StandardCharsets.UTF_8)) {
+            writer.write(GSON.toJson(files));
+        }
+        Files.move(tmpPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private long getDataSize() {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            throw new RuntimeException("In ProjectCodeSnapshot.getDataSize: " + e);
+        }
+    }
+
+    private String read(long begin, long end) {
+        if (end <= begin) {
+            return "";
+        }
+        byte[] bytes = new byte[(int) (end - begin)];
+        try {
+            if (mapped != null) {
+                ByteBuffer view = mapped.duplicate();
+                view.position((int) begin);
+                view.get(bytes);
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                long position = begin;
+                while (buffer.hasRemaining()) {
+                    int n = channel.read(buffer, position);
+                    if (n < 0) {
+                        break;
+                    }
+                    position += n;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("In ProjectCodeSnapshot.read: " + e);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static class FileEntry {
+        String path;
+        /** simple name of the file without .java */
+        String className;
+        String hash;
+        long lastModified;
+        long offset;
+        int length;
+
+        FileEntry(String path, String className, String hash, long lastModified, long offset, int length) {
+            this.path = path;
+            this.className = className;
+            this.hash = hash;
+            this.lastModified = lastModified;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
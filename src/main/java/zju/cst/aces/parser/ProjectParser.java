@@ -14,6 +14,8 @@ import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.ast.expr.Expression;
 import com.github.javaparser.resolution.UnsolvedSymbolException;
 import com.github.javaparser.resolution.types.ResolvedType;
+import com.github.javaparser.symbolsolver.javaparsermodel.JavaParserFacade;
+import com.google.gson.reflect.TypeToken;
 import lombok.var;
 import org.apache.maven.shared.dependency.graph.DependencyNode;
 import slicing.graphs.CallGraph;
@@ -26,6 +28,7 @@ import slicing.slicing.Slice;
 import zju.cst.aces.api.Project;
 import zju.cst.aces.api.config.Config;
 import zju.cst.aces.dto.MethodExampleMap;
+import zju.cst.aces.util.ClassNameIndex;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -36,7 +39,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class ProjectParser {
 
@@ -47,6 +59,10 @@ public class ProjectParser {
     public static Config config;
     public int classCount = 0;
     public int methodCount = 0;
+    private final AtomicInteger liveAsts = new AtomicInteger(0);
+    private final AtomicInteger peakLiveAsts = new AtomicInteger(0);
+    private ResolutionCache resolutionCache = new ResolutionCache();
+    private JobManifest jobManifest = new JobManifest();
 
     public ProjectParser(Config config) {
         this.srcFolderPath = Paths.get(config.getProject().getBasedir().getAbsolutePath(), "src", "main", "java");
@@ -56,7 +72,8 @@ public class ProjectParser {
     }
 
     /**
-     * Parse the project.
+     * Parse the project. In incremental mode only the source files changed since the last parse are parsed again,
+     * the output of changed and deleted files is removed first.
      */
     public void parse() {
         List<String> classPaths = scanSourceDirectory(config.getProject());
@@ -64,48 +81,390 @@ public class ProjectParser {
             config.getLogger().warn("No java file found in " + srcFolderPath);
             return;
         }
-        NodeList<CompilationUnit> cus = new NodeList<>();
+        Collections.sort(classPaths);
+        resolutionCache = new ResolutionCache();
+        jobManifest = new JobManifest();
+        SourceManifest oldManifest = loadSourceManifest();
+        boolean incremental = oldManifest != null;
+        SourceManifest manifest = new SourceManifest();
+        List<String> changedPaths = new ArrayList<>();
+        Map<String, String> hashes = new HashMap<>();
         for (String classPath : classPaths) {
-            File file = new File(classPath);
             try {
-                ParseResult<CompilationUnit> parseResult = parser.parse(file);
-                CompilationUnit cu = parseResult.getResult()
-                        .orElseThrow(() -> new NoSuchElementException("No result present in parseResult"));
-
-                cus.add(cu);
-            } catch (Exception e) {
+                String hash = SourceManifest.hash(Paths.get(classPath));
+                if (incremental && oldManifest.isUnchanged(classPath, hash)) {
+                    manifest.put(classPath, oldManifest.get(classPath));
+                    continue;
+                }
+                hashes.put(classPath, hash);
+                changedPaths.add(classPath);
+            } catch (IOException e) {
                 throw new RuntimeException("In ProjectParser.parse: " + e);
             }
         }
-//      MethodExampleMap methodExampleMap = createMethodExampleMap(cus);
 
-        for (var cu : cus) {
+        ParseInfoStore parseStore = config.getParseStore();
+        SourceSnapshot sourceSnapshot = config.isEnableSourceRefs() ? config.getSourceSnapshot() : null;
+        try {
+            if (incremental) {
+                loadParseOutput();
+                for (String sourcePath : oldManifest.getSourcePaths()) {
+                    if (manifest.get(sourcePath) == null) {
+                        removeParsedClasses(oldManifest.get(sourcePath), parseStore);
+                    }
+                }
+                config.getLogger().info("Incremental parse: " + changedPaths.size() + " of " + classPaths.size() + " files changed");
+            } else {
+                if (config.isEnableIncrementalParse() && Files.exists(outputPath)) {
+                    // output of a parse without manifest, the info of the classes deleted since would be left behind
+                    removeJsonOutput();
+                }
+                if (parseStore != null) {
+                    parseStore.clear();
+                }
+                if (sourceSnapshot != null) {
+                    sourceSnapshot.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("In ProjectParser.parse: " + e);
+        }
+
+        // the symbol solvers are dropped after each batch to bound the number of ASTs their caches keep
+        int batchSize = config.getMaxLiveAsts() > 0 ? config.getMaxLiveAsts() : Math.max(1, changedPaths.size());
+        ExecutorService executor = config.getParseThreads() > 1 ? Executors.newFixedThreadPool(config.getParseThreads()) : null;
+        try {
+            for (int from = 0; from < changedPaths.size(); from += batchSize) {
+                List<String> batchPaths = changedPaths.subList(from, Math.min(from + batchSize, changedPaths.size()));
+                parseBatch(batchPaths, hashes, manifest, parseStore, sourceSnapshot, executor);
+                config.getLogger().debug("Parsed files: " + (from + batchPaths.size()) + "/" + changedPaths.size());
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        try {
+            if (parseStore != null) {
+                parseStore.flush();
+            }
+            if (sourceSnapshot != null) {
+                sourceSnapshot.flush();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("In ProjectParser.parse: " + e);
+        }
+        if (config.isEnableIncrementalParse()) {
+            // rewritten even after a full parse, the mappings of an earlier parse without manifest are stale
+            writeJson(config.tmpOutput.resolve("classMapping.json"), config.classMapping);
+            writeJson(config.getClassNameMapPath(), classNameMap);
+            config.getInfoCache().invalidateAll();
+        } else {
+            exportClassMapping();
+//          exportOCC();
+//          exportMethodExampleMap(methodExampleMap);
+            exportJson(config.getClassNameMapPath(), classNameMap);
+        }
+        config.setClassNameIndex(ClassNameIndex.of(classNameMap));
+        try {
+            manifest.save(config.getSourceManifestPath(), config.getGSON());
+        } catch (IOException e) {
+            config.getLogger().warn("Failed to save source manifest: " + e);
+        }
+        try {
+            if (jobManifest != null) {
+                jobManifest.save(config.getJobManifestPath(), config.getGSON());
+            } else {
+                // no manifest of the last parse to update, rebuilt from the parse output on first use
+                Files.deleteIfExists(config.getJobManifestPath());
+            }
+            config.setJobManifest(jobManifest);
+        } catch (IOException e) {
+            config.getLogger().warn("Failed to save job manifest: " + e);
+        }
+        config.getLogger().info("\nParsed files: " + changedPaths.size() + " of " + classPaths.size()
+                + "\nClasses in parsed files: " + classCount + "\nMethods in parsed files: " + methodCount
+                + "\nPeak live ASTs: " + peakLiveAsts.get());
+        config.getLogger().info("Symbol resolution >>> " + resolutionCache.getStats());
+    }
+
+    /**
+     * Parse a batch of files and extract their class info, each file is extracted as soon as it is parsed.
+     * The parsers of the batch are dropped at the end with their symbol solvers, whose caches keep the resolved
+     * nodes and so every AST of the batch.
+     */
+    private void parseBatch(List<String> batchPaths, Map<String, String> hashes, SourceManifest manifest,
+                            ParseInfoStore parseStore, SourceSnapshot sourceSnapshot, ExecutorService executor) {
+        // one parser per thread at a time, JavaParser instances and their symbol solvers are not thread-safe
+        Queue<JavaParser> parsers = new ConcurrentLinkedQueue<>();
+        // class indexes are assigned by file order, independent of the order the files are parsed in
+        AtomicInteger nextIndex = new AtomicInteger(config.sharedInteger.get());
+        CountDownLatch[] indexed = new CountDownLatch[batchPaths.size()];
+        List<Integer> fileIndexes = new ArrayList<>();
+        for (int i = 0; i < batchPaths.size(); i++) {
+            indexed[i] = new CountDownLatch(1);
+            fileIndexes.add(i);
+        }
+
+        List<ParsedFile> parsedFiles;
+        try {
+            parsedFiles = runAll(executor, fileIndexes, i -> {
+                JavaParser javaParser = parsers.poll();
+                if (javaParser == null) {
+                    javaParser = createWorkerParser();
+                }
+                try {
+                    CompilationUnit cu = null;
+                    int indexBase;
+                    try {
+                        cu = parseFile(javaParser, batchPaths.get(i));
+                    } finally {
+                        indexBase = reserveIndexes(indexed, i, nextIndex,
+                                cu == null ? 0 : cu.findAll(ClassOrInterfaceDeclaration.class).size());
+                    }
+                    return new ParsedFile(extractFile(javaParser, cu, indexBase, parseStore, sourceSnapshot),
+                            getDeclaredClasses(cu));
+                } finally {
+                    parsers.add(javaParser);
+                }
+            });
+        } finally {
+            parsers.clear();
+            // the facades of the dropped solvers are kept by JavaParserFacade until cleared
+            JavaParserFacade.clearInstances();
+            liveAsts.set(0);
+        }
+        config.sharedInteger.set(nextIndex.get());
+
+        for (int i = 0; i < parsedFiles.size(); i++) {
+            ParsedFile parsedFile = parsedFiles.get(i);
+            SourceManifest.Entry entry = new SourceManifest.Entry(hashes.get(batchPaths.get(i)));
+            entry.classes.addAll(parsedFile.classParser.parsedClasses);
+            entry.mappingKeys.addAll(parsedFile.classParser.mappingKeys);
+            manifest.put(batchPaths.get(i), entry);
+            if (parsedFile.classNames.isEmpty()) {
+                continue;
+            }
+            if (jobManifest != null) {
+                parsedFile.classParser.classJobs.forEach(jobManifest::put);
+            }
+            addClassMap(parsedFile.classNames);
+            classCount += parsedFile.classNames.size();
+            methodCount += parsedFile.classParser.methodCount;
+        }
+    }
+
+    public ResolutionCache getResolutionCache() {
+        return resolutionCache;
+    }
+
+    public int getLiveAstCount() {
+        return liveAsts.get();
+    }
+
+    public int getPeakLiveAstCount() {
+        return peakLiveAsts.get();
+    }
+
+    private CompilationUnit parseFile(JavaParser javaParser, String classPath) {
+        try {
+            ParseResult<CompilationUnit> parseResult = javaParser.parse(new File(classPath));
+            CompilationUnit cu = parseResult.getResult()
+                    .orElseThrow(() -> new NoSuchElementException("No result present in parseResult"));
+            peakLiveAsts.accumulateAndGet(liveAsts.incrementAndGet(), Math::max);
+            return cu;
+        } catch (Exception e) {
+            throw new RuntimeException("In ProjectParser.parse: " + e);
+        }
+    }
+
+    private ClassParser extractFile(JavaParser javaParser, CompilationUnit cu, int indexBase,
+                                    ParseInfoStore parseStore, SourceSnapshot sourceSnapshot) {
+        try {
+            Path output = outputPath;
+            if (cu.getPackageDeclaration().isPresent()) {
+                String packageName = cu.getPackageDeclaration().get().getNameAsString();
+                output = outputPath.resolve(packageName.replace(".", File.separator));
+            }
+            ClassParser classParser = new ClassParser(javaParser, config.getProject(), output,
+                    config.getLogger(), config.getGSON(), new AtomicInteger(indexBase), config.classMapping, config.ocm);
+            classParser.setParseStore(parseStore, config.isEnableJsonExport());
+            classParser.setResolutionCache(resolutionCache);
+            if (sourceSnapshot != null && cu.getStorage().isPresent()) {
+                classParser.setSourceFile(sourceSnapshot.add(cu.getStorage().get().getPath()));
+            }
+            classParser.extractClass(cu);
+            return classParser;
+        } catch (Exception e) {
+            throw new RuntimeException("In ProjectParser.parse: " + e);
+        }
+    }
+
+    /**
+     * Wait for the files before the file to take their class indexes, then take the indexes of the file.
+     * @return the first class index of the file
+     */
+    private static int reserveIndexes(CountDownLatch[] indexed, int fileIndex, AtomicInteger nextIndex, int classCount) {
+        try {
+            if (fileIndex > 0) {
+                indexed[fileIndex - 1].await();
+            }
+            return nextIndex.getAndAdd(classCount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("In ProjectParser.reserveIndexes: " + e);
+        } finally {
+            indexed[fileIndex].countDown();
+        }
+    }
+
+    /**
+     * Parser with its own symbol solver, used by one thread for one batch.
+     */
+    private JavaParser createWorkerParser() {
+        ParserConfiguration configuration = new ParserConfiguration();
+        setLanguageLevel(configuration);
+        configuration.setSymbolResolver(config.createSymbolSolver());
+        return new JavaParser(configuration);
+    }
+
+    /**
+     * Run the task for each input, on the executor if not null, results are in the order of the inputs.
+     */
+    private static <T, R> List<R> runAll(ExecutorService executor, List<T> inputs, Function<T, R> task) {
+        List<R> results = new ArrayList<>();
+        if (executor == null) {
+            for (T input : inputs) {
+                results.add(task.apply(input));
+            }
+            return results;
+        }
+        List<Future<R>> futures = new ArrayList<>();
+        for (T input : inputs) {
+            futures.add(executor.submit(() -> task.apply(input)));
+        }
+        try {
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("In ProjectParser.runAll: " + e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("In ProjectParser.runAll: " + e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Load the manifest of the last parse if incremental parsing is enabled and the parse output exists.
+     * @return null if the project should be fully parsed
+     */
+    private SourceManifest loadSourceManifest() {
+        if (!config.isEnableIncrementalParse() || !Files.exists(outputPath)) {
+            return null;
+        }
+        try {
+            return SourceManifest.load(config.getSourceManifestPath(), config.getGSON());
+        } catch (Exception e) {
+            config.getLogger().warn("Failed to load source manifest, parse the whole project: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Load classMapping.json and classNameMapping.json of the last parse to be updated in place.
+     */
+    private void loadParseOutput() throws IOException {
+        Path classMappingPath = config.tmpOutput.resolve("classMapping.json");
+        if (Files.exists(classMappingPath)) {
+            Map<String, Map<String, String>> classMapping = config.getGSON().fromJson(
+                    new String(Files.readAllBytes(classMappingPath), StandardCharsets.UTF_8),
+                    new TypeToken<Map<String, Map<String, String>>>() {}.getType());
+            if (classMapping != null) {
+                config.classMapping.putAll(classMapping);
+            }
+        }
+        int nextIndex = 0;
+        for (String key : config.classMapping.keySet()) {
             try {
-                Path output = outputPath;
-                String packageName = "";
-                if (cu.getPackageDeclaration().isPresent()) {
-                    packageName = cu.getPackageDeclaration().get().getNameAsString();
-                    output = outputPath.resolve(packageName.replace(".", File.separator));
+                nextIndex = Math.max(nextIndex, Integer.parseInt(key.substring("class".length())) + 1);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                // not a parser generated key
+            }
+        }
+        config.sharedInteger.set(Math.max(config.sharedInteger.get(), nextIndex));
+
+        jobManifest = JobManifest.load(config.getJobManifestPath(), config.getGSON());
+
+        Path classNameMapPath = config.getClassNameMapPath();
+        if (Files.exists(classNameMapPath)) {
+            Map<String, Set<String>> loaded = config.getGSON().fromJson(
+                    new String(Files.readAllBytes(classNameMapPath), StandardCharsets.UTF_8),
+                    new TypeToken<Map<String, Set<String>>>() {}.getType());
+            if (loaded != null) {
+                loaded.forEach((k, v) -> classNameMap.computeIfAbsent(k, key -> new HashSet<>()).addAll(v));
+            }
+        }
+    }
+
+    /**
+     * Remove the parse output of the classes parsed from a changed or deleted source file.
+     */
+    private void removeParsedClasses(SourceManifest.Entry entry, ParseInfoStore parseStore) throws IOException {
+        for (String fullClassName : entry.classes) {
+            String className = fullClassName.substring(fullClassName.lastIndexOf('.') + 1);
+            Set<String> fullClassNames = classNameMap.get(className);
+            if (fullClassNames != null) {
+                fullClassNames.remove(fullClassName);
+                if (fullClassNames.isEmpty()) {
+                    classNameMap.remove(className);
+                }
+            }
+            if (parseStore != null) {
+                parseStore.removeClass(fullClassName);
+            }
+            if (jobManifest != null) {
+                jobManifest.remove(fullClassName);
+            }
+            File classOutputDir = outputPath.resolve(fullClassName.replace(".", File.separator)).toFile();
+            File[] infoFiles = classOutputDir.listFiles((dir, name) -> name.endsWith(".json"));
+            if (infoFiles != null) {
+                for (File infoFile : infoFiles) {
+                    Files.deleteIfExists(infoFile.toPath());
                 }
-                ClassParser classParser = new ClassParser(parser, config.getProject(), output,
-                        config.getLogger(),  config.getGSON(), config.sharedInteger, config.classMapping, config.ocm);
-                int classNum = classParser.extractClass(cu);
+                String[] remaining = classOutputDir.list();
+                if (remaining != null && remaining.length == 0) {
+                    Files.deleteIfExists(classOutputDir.toPath());
+                }
+            }
+        }
+        for (String key : entry.mappingKeys) {
+            config.classMapping.remove(key);
+        }
+    }
 
-                if (classNum == 0) {
-                    continue;
+    /**
+     * Delete the json class info under the parse output, the binary store is cleared on its own.
+     */
+    private void removeJsonOutput() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(outputPath)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            if (path.toString().endsWith(".json")) {
+                Files.deleteIfExists(path);
+            } else if (!path.equals(outputPath) && Files.isDirectory(path)) {
+                String[] remaining = path.toFile().list();
+                if (remaining != null && remaining.length == 0) {
+                    Files.deleteIfExists(path);
                 }
-                addClassMap(cu);
-                classCount += classNum;
-                methodCount += classParser.methodCount;
-            } catch (Exception e) {
-                throw new RuntimeException("In ProjectParser.parse: " + e);
             }
         }
-        exportClassMapping();
-//      exportOCC();
-//      exportMethodExampleMap(methodExampleMap);
-        exportJson(config.getClassNameMapPath(), classNameMap);
-        config.getLogger().info("\nParsed classes: " + classCount + "\nParsed methods: " + methodCount);
     }
 
     private SDG createSDG(NodeList<CompilationUnit> cus) {
@@ -271,24 +630,47 @@ public class ProjectParser {
     }
 
     public void addClassMap(CompilationUnit cu) {
+        addClassMap(getDeclaredClasses(cu));
+    }
+
+    private void addClassMap(List<String> fullClassNames) {
+        for (String fullClassName : fullClassNames) {
+            String className = fullClassName.substring(fullClassName.lastIndexOf('.') + 1);
+            classNameMap.computeIfAbsent(className, k -> new HashSet<>()).add(fullClassName);
+        }
+    }
+
+    private static List<String> getDeclaredClasses(CompilationUnit cu) {
+        List<String> fullClassNames = new ArrayList<>();
         cu.findAll(ClassOrInterfaceDeclaration.class).forEach(classNode -> {
             String className = classNode.getNameAsString();
-            String fullClassName = cu.getPackageDeclaration().isPresent() ?
-                    cu.getPackageDeclaration().get().getNameAsString() + "." + className : className;
-            if (classNameMap.containsKey(className)) {
-                classNameMap.get(className).add(fullClassName);
-            } else {
-                Set<String> fullClassNames = new HashSet<>();
-                fullClassNames.add(fullClassName);
-                classNameMap.put(className, fullClassNames);
-            }
+            fullClassNames.add(cu.getPackageDeclaration().isPresent() ?
+                    cu.getPackageDeclaration().get().getNameAsString() + "." + className : className);
         });
+        return fullClassNames;
+    }
+
+    private static class ParsedFile {
+        final ClassParser classParser;
+        final List<String> classNames;
+
+        ParsedFile(ClassParser classParser, List<String> classNames) {
+            this.classParser = classParser;
+            this.classNames = classNames;
+        }
     }
 
     public static void exportJson(Path path, Object obj) {
         if(Files.exists(path)){
             return;
         }
+        writeJson(path, obj);
+    }
+
+    /**
+     * Write the json file, overwrite it if exists.
+     */
+    public static void writeJson(Path path, Object obj) {
         if (!Files.exists(path.getParent())) {
             try {
                 Files.createDirectories(path.getParent());
@@ -299,7 +681,7 @@ public class ProjectParser {
         try (OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(path.toFile()), StandardCharsets.UTF_8)){
             writer.write(config.getGSON().toJson(obj));
         } catch (Exception e) {
-            throw new RuntimeException("In ProjectParser.exportJson: " + e);
+            throw new RuntimeException("In ProjectParser.writeJson: " + e);
         }
     }
 
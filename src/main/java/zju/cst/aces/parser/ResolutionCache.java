@@ -0,0 +1,182 @@
+package zju.cst.aces.parser;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
+import com.github.javaparser.ast.nodeTypes.NodeWithStatements;
+import com.github.javaparser.ast.stmt.LocalClassDeclarationStmt;
+import com.github.javaparser.ast.stmt.Statement;
+import com.github.javaparser.ast.type.Type;
+import com.github.javaparser.ast.type.TypeParameter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Memoized symbol resolution shared by the class parsers of one parse run.
+ * Results are keyed by type name in its declaring type, failed resolutions are cached as well
+ * and the same exception is thrown again on a hit.
+ */
+public class ResolutionCache {
+    private final Map<String, Object> cache = new ConcurrentHashMap<>();
+    private volatile Map<String, List<String>> subClassIndex;
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+    private final AtomicLong failureCount = new AtomicLong(0);
+    private final AtomicLong resolveNanos = new AtomicLong(0);
+
+    /**
+     * Get the cached result of the key, resolve it on a miss.
+     * @param key null to resolve without caching
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T resolve(String key, Supplier<T> resolver) {
+        if (key != null) {
+            Object cached = cache.get(key);
+            if (cached != null) {
+                hitCount.incrementAndGet();
+                if (cached instanceof Failure) {
+                    throw ((Failure) cached).exception;
+                }
+                return (T) cached;
+            }
+        }
+        missCount.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            T value = resolver.get();
+            if (key != null && value != null) {
+                cache.put(key, value);
+            }
+            return value;
+        } catch (RuntimeException e) {
+            failureCount.incrementAndGet();
+            if (key != null) {
+                cache.put(key, new Failure(e));
+            }
+            throw e;
+        } finally {
+            resolveNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Get the super class name -> sub classes index of the project, built once by the builder.
+     */
+    public Map<String, List<String>> getSubClassIndex(Supplier<Map<String, List<String>>> builder) {
+        Map<String, List<String>> index = subClassIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = subClassIndex;
+                if (index == null) {
+                    long start = System.nanoTime();
+                    index = builder.get();
+                    resolveNanos.addAndGet(System.nanoTime() - start);
+                    subClassIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Key of a type by its name in the declaring type, the same name resolves to the same type within a type
+     * unless a type parameter of a method, a local class or a member of an anonymous class shadows it.
+     * @return null if the node is not from a source file or the name may be shadowed
+     */
+    public static String typeKey(Node context, Type type, String kind) {
+        String file = getFile(context);
+        if (file == null) {
+            return null;
+        }
+        String name = type.asString().split("[<.\\[]")[0];
+        Node node = context;
+        while (!(node instanceof TypeDeclaration)) {
+            if (node instanceof ObjectCreationExpr && ((ObjectCreationExpr) node).getAnonymousClassBody().isPresent()) {
+                return null;
+            }
+            if (node instanceof CallableDeclaration && declaresTypeParameter((CallableDeclaration<?>) node, name)) {
+                return null;
+            }
+            if (node instanceof NodeWithStatements && declaresLocalClass((NodeWithStatements<?>) node, name)) {
+                return null;
+            }
+            if (!node.getParentNode().isPresent()) {
+                return null;
+            }
+            node = node.getParentNode().get();
+        }
+        TypeDeclaration<?> declaringType = (TypeDeclaration<?>) node;
+        return kind + ":" + file + ":" + declaringType.getNameAsString() + "@"
+                + declaringType.getBegin().map(Object::toString).orElse("") + ":" + type.asString();
+    }
+
+    private static boolean declaresTypeParameter(CallableDeclaration<?> callable, String name) {
+        for (TypeParameter typeParameter : callable.getTypeParameters()) {
+            if (typeParameter.getNameAsString().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean declaresLocalClass(NodeWithStatements<?> block, String name) {
+        for (Statement statement : block.getStatements()) {
+            if (statement instanceof LocalClassDeclarationStmt
+                    && ((LocalClassDeclarationStmt) statement).getClassDeclaration().getNameAsString().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getFile(Node node) {
+        return node.findCompilationUnit()
+                .flatMap(CompilationUnit::getStorage)
+                .map(storage -> storage.getPath().toString())
+                .orElse(null);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    public long getResolveMillis() {
+        return resolveNanos.get() / 1_000_000;
+    }
+
+    public double getHitRate() {
+        long total = hitCount.get() + missCount.get();
+        return total == 0 ? 0 : (double) hitCount.get() / total;
+    }
+
+    public String getStats() {
+        return String.format("entries: %d, hits: %d, misses: %d, failures: %d, hit rate: %.2f%%, resolve time: %d ms",
+                size(), getHitCount(), getMissCount(), getFailureCount(), getHitRate() * 100, getResolveMillis());
+    }
+
+    private static class Failure {
+        final RuntimeException exception;
+
+        Failure(RuntimeException exception) {
+            this.exception = exception;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package zju.cst.aces.parser;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Content hashes of the parsed source files and the classes parsed from each of them,
+ * used to re-parse only the changed files.
+ */
+public class SourceManifest {
+    private final Map<String, Entry> entries;
+
+    public SourceManifest() {
+        this.entries = new TreeMap<>();
+    }
+
+    private SourceManifest(Map<String, Entry> entries) {
+        this.entries = new TreeMap<>(entries);
+    }
+
+    /**
+     * Load the manifest from the json file.
+     * @return null if the file does not exist
+     */
+    public static SourceManifest load(Path manifestPath, Gson gson) throws IOException {
+        if (!Files.exists(manifestPath)) {
+            return null;
+        }
+        Map<String, Entry> entries = gson.fromJson(new String(Files.readAllBytes(manifestPath), StandardCharsets.UTF_8),
+                new TypeToken<Map<String, Entry>>() {}.getType());
+        return new SourceManifest(entries == null ? Collections.emptyMap() : entries);
+    }
+
+    public void save(Path manifestPath, Gson gson) throws IOException {
+        Files.createDirectories(manifestPath.getParent());
+        try (OutputStreamWriter writer = new OutputStreamWriter(Files.newOutputStream(manifestPath), StandardCharsets.UTF_8)) {
+            writer.write(gson.toJson(entries));
+        }
+    }
+
+    public Entry get(String sourcePath) {
+        return entries.get(sourcePath);
+    }
+
+    public void put(String sourcePath, Entry entry) {
+        entries.put(sourcePath, entry);
+    }
+
+    public Set<String> getSourcePaths() {
+        return entries.keySet();
+    }
+
+    /**
+     * Check if the source file is recorded with the same content hash.
+     */
+    public boolean isUnchanged(String sourcePath, String hash) {
+        Entry entry = entries.get(sourcePath);
+        return entry != null && entry.hash.equals(hash);
+    }
+
+    public static String hash(Path sourcePath) throws IOException {
+        return hash(Files.readAllBytes(sourcePath));
+    }
+
+    public static String hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("In SourceManifest.hash: " + e);
+        }
+    }
+
+    public static class Entry {
+        public String hash;
+        /** full class names of the classes parsed from the file */
+        public List<String> classes = new ArrayList<>();
+        /** keys of the classes in classMapping.json */
+        public List<String> mappingKeys = new ArrayList<>();
+
+        public Entry(String hash) {
+            this.hash = hash;
+        }
+    }
+}
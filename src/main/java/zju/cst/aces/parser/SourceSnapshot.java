@@ -0,0 +1,246 @@
+package zju.cst.aces.parser;
+
+import com.github.javaparser.Position;
+import com.github.javaparser.Range;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.comments.Comment;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import zju.cst.aces.dto.SourceRef;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Copy of the parsed source files in one data file, parse records refer to it by {@link SourceRef}
+ * instead of holding the code text. The text is decoded on demand from a memory-mapped view.
+ * <p>
+ * Files are appended, so references of an earlier parse stay valid after an incremental parse.
+ */
+public class SourceSnapshot implements Closeable {
+    public static final String DATA_FILE = "source-snapshot.dat";
+    public static final String INDEX_FILE = "source-snapshot.json";
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+    private final Path dataPath;
+    private final Path indexPath;
+    private final List<FileEntry> files = new ArrayList<>();
+    private FileChannel channel;
+    private volatile MappedByteBuffer mapped;
+
+    private SourceSnapshot(Path dir) {
+        this.dataPath = dir.resolve(DATA_FILE);
+        this.indexPath = dir.resolve(INDEX_FILE);
+    }
+
+    public static SourceSnapshot open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        SourceSnapshot snapshot = new SourceSnapshot(dir);
+        snapshot.channel = FileChannel.open(snapshot.dataPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (Files.exists(snapshot.indexPath)) {
+            List<FileEntry> files = GSON.fromJson(new String(Files.readAllBytes(snapshot.indexPath), StandardCharsets.UTF_8),
+                    new TypeToken<List<FileEntry>>() {}.getType());
+            if (files != null) {
+                snapshot.files.addAll(files);
+            }
+        }
+        return snapshot;
+    }
+
+    public static boolean exists(Path dir) {
+        return Files.exists(dir.resolve(INDEX_FILE));
+    }
+
+    /**
+     * Append the source file to the snapshot.
+     * @return the handle to create references into the file
+     */
+    public synchronized SourceFile add(Path sourcePath) throws IOException {
+        byte[] bytes = Files.readAllBytes(sourcePath);
+        long offset = channel.size();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        files.add(new FileEntry(sourcePath.toString(), offset, bytes.length));
+        return new SourceFile(files.size() - 1, bytes);
+    }
+
+    /**
+     * Get the source code text of the reference.
+     */
+    public String getText(SourceRef ref) {
+        FileEntry file;
+        synchronized (this) {
+            file = files.get(ref.fileId);
+        }
+        long begin = file.offset + ref.begin;
+        long end = file.offset + Math.min(ref.end, file.length);
+        byte[] bytes = new byte[(int) (end - begin)];
+        try {
+            ByteBuffer view = getView(end);
+            if (view != null) {
+                view.position((int) begin);
+                view.get(bytes);
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                long position = begin;
+                while (buffer.hasRemaining()) {
+                    int n = channel.read(buffer, position);
+                    if (n < 0) {
+                        break;
+                    }
+                    position += n;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("In SourceSnapshot.getText: " + e);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public synchronized String getPath(int fileId) {
+        return files.get(fileId).path;
+    }
+
+    public synchronized void clear() throws IOException {
+        channel.truncate(0);
+        files.clear();
+        mapped = null;
+    }
+
+    /**
+     * Write the file index.
+     */
+    public synchronized void flush() throws IOException {
+        channel.force(false);
+        Path tmpPath = indexPath.resolveSibling(INDEX_FILE + ".tmp");
+        try (OutputStreamWriter writer = new OutputStreamWriter(Files.newOutputStream(tmpPath), StandardCharsets.UTF_8)) {
+            writer.write(GSON.toJson(files));
+        }
+        Files.move(tmpPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        flush();
+        channel.close();
+        mapped = null;
+    }
+
+    private ByteBuffer getView(long end) throws IOException {
+        MappedByteBuffer current = mapped;
+        if (current == null || current.capacity() < end) {
+            synchronized (this) {
+                current = mapped;
+                if (current == null || current.capacity() < end) {
+                    long size = channel.size();
+                    if (size > Integer.MAX_VALUE) {
+                        return null;
+                    }
+                    current = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    mapped = current;
+                }
+            }
+        }
+        return current.duplicate();
+    }
+
+    private static class FileEntry {
+        String path;
+        long offset;
+        int length;
+
+        FileEntry(String path, long offset, int length) {
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A source file added to the snapshot, converts node positions to byte offsets.
+     */
+    public static class SourceFile {
+        private final int fileId;
+        private final byte[] bytes;
+        private final int[] lineStarts;
+
+        private SourceFile(int fileId, byte[] bytes) {
+            this.fileId = fileId;
+            this.bytes = bytes;
+            List<Integer> starts = new ArrayList<>();
+            starts.add(0);
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] == '\r' && i + 1 < bytes.length && bytes[i + 1] == '\n') {
+                    i++;
+                }
+                if (bytes[i] == '\n' || bytes[i] == '\r') {
+                    starts.add(i + 1);
+                }
+            }
+            this.lineStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        public SourceRef whole() {
+            return new SourceRef(fileId, 0, bytes.length);
+        }
+
+        /**
+         * Reference to the node, from its leading comment if any.
+         * @return null if the node has no position
+         */
+        public SourceRef withComment(Node node) {
+            Optional<Range> range = node.getRange();
+            if (!range.isPresent()) {
+                return null;
+            }
+            Position begin = node.getComment().flatMap(Comment::getBegin)
+                    .filter(p -> p.isBefore(range.get().begin))
+                    .orElse(range.get().begin);
+            return new SourceRef(fileId, toOffset(begin, false), toOffset(range.get().end, true));
+        }
+
+        /**
+         * Reference to the node itself.
+         * @return null if the node has no position
+         */
+        public SourceRef of(Node node) {
+            Optional<Range> range = node.getRange();
+            if (!range.isPresent()) {
+                return null;
+            }
+            return new SourceRef(fileId, toOffset(range.get().begin, false), toOffset(range.get().end, true));
+        }
+
+        /**
+         * Convert the line and column (1-based, one column per char) to the byte offset in the file.
+         */
+        private int toOffset(Position position, boolean inclusive) {
+            int line = Math.min(Math.max(position.line, 1), lineStarts.length);
+            int lineStart = lineStarts[line - 1];
+            int lineEnd = line < lineStarts.length ? lineStarts[line] : bytes.length;
+            String lineText = new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+            int chars = Math.max(0, Math.min(inclusive ? position.column : position.column - 1, lineText.length()));
+            return lineStart + lineText.substring(0, chars).getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+}
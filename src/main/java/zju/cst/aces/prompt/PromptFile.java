@@ -8,6 +8,8 @@ public enum PromptFile {
     // 定义枚举常量及其对应的模板文件名
     chatunitest_init("PROMPT_TEMPLATE_INIT", "PROMPT_TEMPLATE_INIT_SYSTEM"),
     chatunitest_repair("PROMPT_TEMPLATE_REPAIR", "PROMPT_TEMPLATE_INIT_SYSTEM"),
+    chatunitest_prefix_init("PROMPT_TEMPLATE_PREFIX_INIT", "PROMPT_TEMPLATE_INIT_SYSTEM"),
+    chatunitest_prefix_repair("PROMPT_TEMPLATE_PREFIX_REPAIR", "PROMPT_TEMPLATE_INIT_SYSTEM"),
     testpilot_init("PROMPT_TEMPLATE_TESTPILOT_INIT", "PROMPT_TEMPLATE_INIT_SYSTEM"),
     testpilot_repair("PROMPT_TEMPLATE_REPAIR", "PROMPT_TEMPLATE_INIT_SYSTEM"),
     hits_slice_init("PROMPT_TEMPLATE_HITS_GEN_SLICE", "PROMPT_TEMPLATE_HITS_SYS_GEN"),
@@ -1,12 +1,14 @@
 package zju.cst.aces.prompt;
 
 import zju.cst.aces.api.config.Config;
+import zju.cst.aces.api.config.Model;
 import zju.cst.aces.api.phase.solution.CHATTESTER;
 import zju.cst.aces.api.phase.solution.COVERUP;
 import zju.cst.aces.api.phase.solution.SYMPROMPT;
 import zju.cst.aces.api.phase.solution.TELPA;
 import zju.cst.aces.dto.*;
 import zju.cst.aces.prompt.template.PromptTemplate;
+import zju.cst.aces.util.TokenBudget;
 import zju.cst.aces.util.TokenCounter;
 import zju.cst.aces.util.symprompt.PathConstraintExtractor;
 
@@ -80,18 +82,64 @@ public class PromptGenerator {
      * @return
      */
     public List<ChatMessage> generateMessages(PromptInfo promptInfo, String templateName) {
+        if (config.isEnablePrefixLayout()) {
+            PromptFile promptFile = selectPromptFile(templateName, promptInfo.errorMsg != null);
+            if (promptFile == PromptFile.chatunitest_init || promptFile == PromptFile.chatunitest_repair) {
+                return generatePrefixMessages(promptInfo);
+            }
+        }
         List<ChatMessage> chatMessages = new ArrayList<>();
+        // the context of the user prompt is packed in what the system prompt leaves
+        TokenBudget budget = new TokenBudget(config.getModel(), config.getMaxPromptTokens());
         if (promptInfo.errorMsg == null) { // round 0
-            chatMessages.add(ChatMessage.ofSystem(createSystemPrompt(promptInfo, selectPromptFile(templateName, false).getGenerateSystem())));
-            chatMessages.add(ChatMessage.of(createUserPrompt(promptInfo, selectPromptFile(templateName, false).getGenerate())));
+            String systemPrompt = createSystemPrompt(promptInfo, selectPromptFile(templateName, false).getGenerateSystem());
+            budget.add(systemPrompt);
+            chatMessages.add(ChatMessage.ofSystem(systemPrompt));
+            chatMessages.add(ChatMessage.of(createUserPrompt(promptInfo, selectPromptFile(templateName, false).getGenerate(), budget.getRemaining())));
         } else {
             processRepair(promptInfo);
-            chatMessages.add(ChatMessage.ofSystem(createSystemPrompt(promptInfo, selectPromptFile(templateName, true).getGenerateSystem())));
-            chatMessages.add(ChatMessage.of(createUserPrompt(promptInfo, selectPromptFile(templateName, true).getGenerate())));
+            String systemPrompt = createSystemPrompt(promptInfo, selectPromptFile(templateName, true).getGenerateSystem());
+            budget.add(systemPrompt);
+            chatMessages.add(ChatMessage.ofSystem(systemPrompt));
+            chatMessages.add(ChatMessage.of(createUserPrompt(promptInfo, selectPromptFile(templateName, true).getGenerate(), budget.getRemaining())));
         }
 
         return chatMessages;
     }
+    /**
+     * Generate messages whose prefix is the same in all attempts and repair rounds of the focal method:
+     * the system prompt, then the context of the focal method, then the instruction with the test and the errors.
+     * The context is packed in the same budget in every round, the errors are cut to what the context leaves.
+     */
+    public List<ChatMessage> generatePrefixMessages(PromptInfo promptInfo) {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        PromptFile promptFile = promptInfo.errorMsg == null
+                ? PromptFile.chatunitest_prefix_init : PromptFile.chatunitest_prefix_repair;
+        TokenBudget budget = new TokenBudget(config.getModel(), config.getMaxPromptTokens());
+        String systemPrompt = createSystemPrompt(promptInfo, promptFile.getGenerateSystem());
+        budget.add(systemPrompt);
+        String context = createUserPrompt(promptInfo, config.getProperties().getProperty("PROMPT_TEMPLATE_PREFIX_CONTEXT"),
+                Math.max(0, budget.getRemaining() - getInstructionReserve()));
+        budget.add(context);
+        if (promptInfo.errorMsg != null) {
+            promptTemplate.dataModel.put("error_message", "");
+            int instructionTokens = TokenCounter.countToken(config.getModel(), createUserPrompt(promptInfo, promptFile.getGenerate()));
+            processRepair(promptInfo, Math.max(budget.getRemaining() - instructionTokens, config.getMinErrorTokens()));
+        }
+        chatMessages.add(ChatMessage.ofSystem(systemPrompt));
+        chatMessages.add(ChatMessage.of(context));
+        chatMessages.add(ChatMessage.of(createUserPrompt(promptInfo, promptFile.getGenerate())));
+        return chatMessages;
+    }
+
+    /**
+     * Tokens kept out of the context of the prefix layout for the instruction, the unit test and the errors,
+     * the same in every round so the context does not change between rounds.
+     */
+    private int getInstructionReserve() {
+        return config.getMaxPromptTokens() / 3;
+    }
+
     public PromptFile selectPromptFile(String templateName, boolean ifRepair) {
         if (ifRepair) {
             return getRepairPromptFile(templateName);
@@ -172,12 +220,19 @@ public class PromptGenerator {
 
 
     public String createUserPrompt(PromptInfo promptInfo, String templateName) {
+        return createUserPrompt(promptInfo, templateName, config.getMaxPromptTokens());
+    }
+
+    /**
+     * @param maxTokens the tokens the prompt may take, its context is packed to fit
+     */
+    public String createUserPrompt(PromptInfo promptInfo, String templateName, int maxTokens) {
         try {
             this.promptTemplate.buildDataModel(config, promptInfo);
             if (templateName.equals(promptTemplate.TEMPLATE_REPAIR)) { // repair process
-                return promptTemplate.renderTemplate(promptTemplate.TEMPLATE_REPAIR);
+                return promptTemplate.renderTemplate(promptTemplate.TEMPLATE_REPAIR, maxTokens);
             } else {
-                return promptTemplate.renderTemplate(templateName);
+                return promptTemplate.renderTemplate(templateName, maxTokens);
             }
         } catch (Exception e) {
             throw new RuntimeException("An error occurred while generating the user prompt: " + e);
@@ -208,23 +263,34 @@ public class PromptGenerator {
         return "";
     }
     public void processRepair(PromptInfo promptInfo){
-        int promptTokens = TokenCounter.countToken(promptInfo.getUnitTest())
-                + TokenCounter.countToken(promptInfo.getMethodSignature())
-                + TokenCounter.countToken(promptInfo.getClassName())
-                + TokenCounter.countToken(promptInfo.getContext())
-                + TokenCounter.countToken(promptInfo.getOtherMethodBrief());
+        Model model = config.getModel();
+        int promptTokens = TokenCounter.countToken(model, promptInfo.getUnitTest())
+                + TokenCounter.countToken(model, promptInfo.getMethodSignature())
+                + TokenCounter.countToken(model, promptInfo.getClassName())
+                + TokenCounter.countToken(model, promptInfo.getContext())
+                + TokenCounter.countToken(model, promptInfo.getOtherMethodBrief());
         int allowedTokens = Math.max(config.getMaxPromptTokens() - promptTokens, config.getMinErrorTokens());
+        processRepair(promptInfo, allowedTokens);
+    }
+
+    /**
+     * Put the unit test and the errors that fit in the allowed tokens into the data model.
+     */
+    public void processRepair(PromptInfo promptInfo, int allowedTokens) {
+        Model model = config.getModel();
         TestMessage errorMsg = promptInfo.getErrorMsg();
-        String processedErrorMsg = "";
+        // each error is counted once against the running total
+        TokenBudget budget = new TokenBudget(model, allowedTokens);
+        StringBuilder processedErrorMsg = new StringBuilder();
         for (String error : errorMsg.getErrorMessage()) {
-            if (TokenCounter.countToken(processedErrorMsg + error + "\n") <= allowedTokens) {
-                processedErrorMsg += error + "\n";
+            if (budget.tryAdd(error + "\n")) {
+                processedErrorMsg.append(error).append("\n");
             }
         }
         config.getLogger().debug("Allowed tokens: " + allowedTokens);
         config.getLogger().debug("Processed error message: \n" + processedErrorMsg);
 
         promptTemplate.dataModel.put("unit_test", promptInfo.getUnitTest());
-        promptTemplate.dataModel.put("error_message", processedErrorMsg);
+        promptTemplate.dataModel.put("error_message", processedErrorMsg.toString());
     }
 }
@@ -0,0 +1,158 @@
+package zju.cst.aces.prompt.template;
+
+import zju.cst.aces.api.config.Model;
+import zju.cst.aces.util.TokenCounter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Chooses the context of a prompt that fits in a token budget. Each droppable entry of the data model is split into
+ * sections, a string or one element of a list or a map, and each section is counted once. The sections are then kept
+ * by priority, the focal method first, then the constructors, the dependency signatures, the bodies and the examples,
+ * and by size within a priority, skipping the sections that do not fit.
+ */
+public class ContextPacker {
+    /** priority of the droppable entries, lower is kept first, the entries not listed are always kept */
+    private static final Map<String, Integer> PRIORITIES = new HashMap<>();
+    /** tokens of the template text around each element of a list or a map, such as "The brief information of ..." */
+    private static final int ELEMENT_OVERHEAD_TOKENS = 16;
+
+    static {
+        for (String key : new String[]{"constructor_sigs", "c_deps", "ext_c_deps", "dep_c_sigs", "fields"}) {
+            PRIORITIES.put(key, 1);
+        }
+        for (String key : new String[]{"dep_class_sigs", "m_deps", "ext_m_deps", "dep_m_sigs", "dep_m_sigs_ano_com",
+                "other_method_sigs", "getter_setter_sigs", "dep_fields", "dep_gs_sigs"}) {
+            PRIORITIES.put(key, 2);
+        }
+        for (String key : new String[]{"constructor_bodies", "getter_setter_bodies", "other_method_bodies",
+                "dep_c_bodies", "dep_m_bodies", "dep_gs_bodies", "dep_class_bodies"}) {
+            PRIORITIES.put(key, 3);
+        }
+        for (String key : new String[]{"method_invocation_codes_outerclass", "method_invocation_codes_innerclass",
+                "example_usage", "java_doc_code", "doc_infos"}) {
+            PRIORITIES.put(key, 4);
+        }
+        PRIORITIES.put("project_full_code", 5);
+    }
+
+    private final Model model;
+
+    public ContextPacker(Model model) {
+        this.model = model;
+    }
+
+    public static boolean isDroppable(String key) {
+        return PRIORITIES.containsKey(key);
+    }
+
+    /**
+     * The value left when all the sections of the entry are dropped.
+     * @return null if the value cannot be reduced
+     */
+    public static Object empty(Object value) {
+        if (value instanceof String) {
+            return "";
+        } else if (value instanceof List) {
+            return new ArrayList<>();
+        } else if (value instanceof Map) {
+            return new LinkedHashMap<>();
+        }
+        return null;
+    }
+
+    /**
+     * Keep the best sections of the entries within the budget.
+     * @param context the full values of the droppable entries
+     * @param budget tokens left by the rest of the prompt
+     * @return the reduced values, in the same types and orders as the full values
+     */
+    public Map<String, Object> pack(Map<String, Object> context, int budget) {
+        List<Section> sections = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : context.entrySet()) {
+            int priority = PRIORITIES.getOrDefault(entry.getKey(), 0);
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                sections.add(new Section(entry.getKey(), priority, 0, TokenCounter.countToken(model, (String) value)));
+            } else if (value instanceof List) {
+                int index = 0;
+                for (Object element : (List<?>) value) {
+                    sections.add(new Section(entry.getKey(), priority, index++, countElement(String.valueOf(element))));
+                }
+            } else if (value instanceof Map) {
+                int index = 0;
+                for (Map.Entry<?, ?> element : ((Map<?, ?>) value).entrySet()) {
+                    sections.add(new Section(entry.getKey(), priority, index++,
+                            countElement(element.getKey() + "\n" + element.getValue())));
+                }
+            }
+        }
+        sections.sort(Comparator.comparingInt((Section s) -> s.priority).thenComparingInt(s -> s.tokens));
+
+        Map<String, Set<Integer>> kept = new HashMap<>();
+        int remaining = budget;
+        for (Section section : sections) {
+            if (section.tokens <= remaining) {
+                remaining -= section.tokens;
+                kept.computeIfAbsent(section.key, k -> new HashSet<>()).add(section.index);
+            }
+        }
+
+        Map<String, Object> packed = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : context.entrySet()) {
+            Set<Integer> indexes = kept.getOrDefault(entry.getKey(), Collections.emptySet());
+            packed.put(entry.getKey(), select(entry.getValue(), indexes));
+        }
+        return packed;
+    }
+
+    private int countElement(String text) {
+        return TokenCounter.countToken(model, text) + ELEMENT_OVERHEAD_TOKENS;
+    }
+
+    private static Object select(Object value, Set<Integer> indexes) {
+        if (value instanceof String) {
+            return indexes.isEmpty() ? "" : value;
+        }
+        if (value instanceof List) {
+            List<Object> selected = new ArrayList<>();
+            List<?> list = (List<?>) value;
+            for (int i = 0; i < list.size(); i++) {
+                if (indexes.contains(i)) {
+                    selected.add(list.get(i));
+                }
+            }
+            return selected;
+        }
+        Map<Object, Object> selected = new LinkedHashMap<>();
+        int i = 0;
+        for (Map.Entry<?, ?> element : ((Map<?, ?>) value).entrySet()) {
+            if (indexes.contains(i++)) {
+                selected.put(element.getKey(), element.getValue());
+            }
+        }
+        return selected;
+    }
+
+    private static class Section {
+        final String key;
+        final int priority;
+        final int index;
+        final int tokens;
+
+        Section(String key, int priority, int index, int tokens) {
+            this.key = key;
+            this.priority = priority;
+            this.index = index;
+            this.tokens = tokens;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package zju.cst.aces.prompt.template;
+
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Data model of a prompt whose entries may be computed on demand. A lazy entry is only computed when a template
+ * reads it, and then kept until it is replaced, so the context a template does not use costs nothing.
+ */
+public class LazyDataModel implements TemplateHashModel {
+    private static final ObjectWrapper WRAPPER = new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_30).build();
+
+    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Loader> loaders = new HashMap<>();
+
+    /**
+     * Computes the value of a lazy entry, null is a valid value.
+     */
+    public interface Loader {
+        Object load() throws IOException;
+    }
+
+    public void put(String key, Object value) {
+        loaders.remove(key);
+        values.put(key, value);
+    }
+
+    public void putLazy(String key, Loader loader) {
+        values.remove(key);
+        loaders.put(key, loader);
+    }
+
+    public boolean containsKey(String key) {
+        return values.containsKey(key) || loaders.containsKey(key);
+    }
+
+    /**
+     * Get the value of the entry, computing it if it is lazy.
+     * @return null if the entry does not exist
+     */
+    public Object getValue(String key) throws IOException {
+        Loader loader = loaders.remove(key);
+        if (loader != null) {
+            values.put(key, loader.load());
+        }
+        return values.get(key);
+    }
+
+    /**
+     * @return whether the entry is set and computed, without computing it
+     */
+    public boolean isLoaded(String key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public TemplateModel get(String key) throws TemplateModelException {
+        try {
+            Object value = getValue(key);
+            return value == null ? null : WRAPPER.wrap(value);
+        } catch (IOException e) {
+            throw new TemplateModelException("In LazyDataModel.get: failed to compute " + key + ": " + e, e);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.isEmpty() && loaders.isEmpty();
+    }
+}
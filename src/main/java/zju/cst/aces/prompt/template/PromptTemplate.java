@@ -4,29 +4,23 @@ package zju.cst.aces.prompt.template;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
-import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
 import lombok.Data;
-import zju.cst.aces.api.Task;
 import zju.cst.aces.api.config.Config;
+import zju.cst.aces.api.config.Model;
 import zju.cst.aces.dto.*;
-import zju.cst.aces.parser.ProjectParser;
 import zju.cst.aces.runner.AbstractRunner;
+import zju.cst.aces.util.TokenCounter;
 import zju.cst.aces.util.testpilot.JavadocCodeExampleCheck;
-import zju.cst.aces.util.testpilot.SnippetAnalyzer;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringWriter;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 @Data
 public class PromptTemplate {
@@ -39,7 +33,7 @@ public class PromptTemplate {
     public String TEMPLATE_EXTRA = "";
     public String TEMPLATE_REPAIR = "";
 
-    public Map<String, Object> dataModel = new HashMap<>();
+    public LazyDataModel dataModel = new LazyDataModel();
     public Properties properties;
     public Path promptPath;
     public int maxPromptTokens;
@@ -58,102 +52,127 @@ public class PromptTemplate {
     }
     //渲染
     public String renderTemplate(String templateFileName) throws IOException, TemplateException{
-        Configuration configuration = new Configuration(Configuration.VERSION_2_3_30);
+        return renderTemplate(templateFileName, this.maxPromptTokens);
+    }
 
-        if (this.promptPath == null) {
-            configuration.setClassForTemplateLoading(PromptTemplate.class, "/prompt");
-        } else {
-            configuration.setDirectoryForTemplateLoading(this.promptPath.toFile());
-        }
-        configuration.setDefaultEncoding("utf-8");
-        Template template = configuration.getTemplate(templateFileName);
-
-        Pattern pattern = Pattern.compile("\\$\\{([a-zA-Z_][\\w]*)\\}");
-        Matcher matcher = pattern.matcher(template.toString());
-        List<String> matches = new ArrayList<>();
-        while (matcher.find()) {
-            String e = matcher.group(1);
-            if (!matches.contains(e)) {
-                matches.add(e);
-            }
-        }
-
-        String generatedText;
-        // adaptive foal context
-        do {
-            StringWriter writer = new StringWriter();
-            template.process(dataModel, writer);
-            generatedText = writer.toString();
-            if (matches.size() > 0) {
-                String key = matches.get(matches.size()-1);
-                if (dataModel.containsKey(key)) {
-                    if(dataModel.get(key)==null) break;
-                    if (dataModel.get(key) instanceof String) {
-                        dataModel.put(key, "");
-                    } else if (dataModel.get(key) instanceof List) {
-                        dataModel.put(key, new ArrayList<String>());
-                    } else if (dataModel.get(key) instanceof Map) {
-                        dataModel.put(key, new HashMap<String, String>());
-                    } else {
-                        break;
-                    }
-                }
-                matches.remove(matches.size()-1);
+    /**
+     * Render the template, with the context packed to fit in maxTokens if the full prompt does not.
+     * The prompt is longer than maxTokens only if the context that is never dropped is.
+     */
+    public String renderTemplate(String templateFileName, int maxTokens) throws IOException, TemplateException{
+        // parsed once per prompt directory and shared by all prompts
+        Template template = TemplateRegistry.getConfiguration(this.promptPath, config != null && config.isEnablePromptHotReload())
+                .getTemplate(templateFileName);
+        Model model = config == null ? null : config.getModel();
+
+        String generatedText = process(template);
+        int tokens = TokenCounter.countToken(model, generatedText);
+        if (tokens <= maxTokens) {
+            return generatedText;
+        }
+
+        // adaptive focal context: measure the prompt without the droppable context, then fill the rest
+        Map<String, Object> context = new LinkedHashMap<>();
+        for (String key : TemplateRegistry.getReferencedNames(template)) {
+            if (!ContextPacker.isDroppable(key) || !dataModel.containsKey(key)) {
+                continue;
+            }
+            Object value = dataModel.getValue(key);
+            Object empty = ContextPacker.empty(value);
+            if (empty != null) {
+                context.put(key, value);
+                dataModel.put(key, empty);
+            }
+        }
+        if (context.isEmpty()) {
+            return generatedText;
+        }
+        int fixedTokens = TokenCounter.countToken(model, process(template));
+        ContextPacker packer = new ContextPacker(model);
+        int budget = maxTokens - fixedTokens;
+        // the template text around the kept sections is estimated, a second pass takes off what it was short by
+        for (int pass = 0; pass < 2 && budget > 0; pass++) {
+            for (Map.Entry<String, Object> entry : packer.pack(context, budget).entrySet()) {
+                dataModel.put(entry.getKey(), entry.getValue());
+            }
+            generatedText = process(template);
+            tokens = TokenCounter.countToken(model, generatedText);
+            if (tokens <= maxTokens) {
+                return generatedText;
             }
-        } while (AbstractRunner.isExceedMaxTokens(this.maxPromptTokens, generatedText) && matches.size()>0);
-        return generatedText;
+            budget -= tokens - maxTokens;
+        }
+        // no context fits, the prompt is left to the caller's limit check
+        for (Map.Entry<String, Object> entry : context.entrySet()) {
+            dataModel.put(entry.getKey(), ContextPacker.empty(entry.getValue()));
+        }
+        return process(template);
+    }
+
+    private String process(Template template) throws IOException, TemplateException {
+        StringWriter writer = new StringWriter();
+        template.process(dataModel, writer);
+        return writer.toString();
     }
 
     public void buildDataModel(Config config, PromptInfo promptInfo) throws IOException {
-        Map<String, String> cdep_temp = new HashMap<>();
-        Map<String, String> mdep_temp = new HashMap<>();
+        // sorted, so the dependencies render in the same order in every prompt of the method
+        Map<String, String> cdep_temp = new TreeMap<>();
+        Map<String, String> mdep_temp = new TreeMap<>();
 
-        Map<String, String> ext_cdep_temp = new HashMap<>();
-        Map<String, String> ext_mdep_temp = new HashMap<>();
+        Map<String, String> ext_cdep_temp = new TreeMap<>();
+        Map<String, String> ext_mdep_temp = new TreeMap<>();
 
+        ClassInfo classInfo = promptInfo.getClassInfo();
+        MethodInfo methodInfo = promptInfo.getMethodInfo();
         this.dataModel.put("unit_test", promptInfo.getUnitTest());
+        // the context below is only computed if the template uses it
         // Map<String, String>, key: dependent class names
-        this.dataModel.put("dep_packages", getDepPackages(promptInfo.getClassInfo(), promptInfo.getMethodInfo()));
-        this.dataModel.put("dep_imports", getDepImports(promptInfo.getClassInfo(), promptInfo.getMethodInfo()));
-        this.dataModel.put("dep_class_sigs", getDepClassSigs(promptInfo.getClassInfo(), promptInfo.getMethodInfo()));
-        this.dataModel.put("dep_class_bodies", getDepClassBodies(promptInfo.getClassInfo(), promptInfo.getMethodInfo()));
-        this.dataModel.put("dep_m_sigs", getDepBrief(promptInfo.getMethodInfo()));
-        this.dataModel.put("dep_m_bodies", getDepBodies(promptInfo.getMethodInfo()));
-        this.dataModel.put("dep_c_sigs", getDepConstructorSigs(promptInfo.getClassInfo(), promptInfo.getMethodInfo()));
-        this.dataModel.put("dep_c_bodies", getDepConstructorBodies(promptInfo.getClassInfo(), promptInfo.getMethodInfo()));
-        this.dataModel.put("dep_fields", getDepFields(promptInfo.getClassInfo(), promptInfo.getMethodInfo()));
-        this.dataModel.put("dep_gs_sigs", getDepGSSigs(promptInfo.getClassInfo(), promptInfo.getMethodInfo()));
-        this.dataModel.put("dep_gs_bodies", getDepGSBodies(promptInfo.getClassInfo(), promptInfo.getMethodInfo()));
-        this.dataModel.put("dep_m_sigs_ano_com",getDepBriefWithAnoAndCom(promptInfo.getClassInfo(),promptInfo.getMethodInfo()));
-        if(isTokenExceed(promptInfo.getMethodInfo().full_method_info,
-                getDepClassSigs(promptInfo.getClassInfo(), promptInfo.getMethodInfo()),
-                getDepBriefWithAnoAndCom(promptInfo.getClassInfo(),promptInfo.getMethodInfo()))){
-            this.dataModel.put("dep_m_sigs_ano_com",getDepBriefWithAno(promptInfo.getClassInfo(),promptInfo.getMethodInfo()));
-        }
-        this.dataModel.put("project_full_code", getFullProjectCode(promptInfo.getClassName(), config));
+        this.dataModel.putLazy("dep_packages", () -> getDepPackages(classInfo, methodInfo));
+        this.dataModel.putLazy("dep_imports", () -> getDepImports(classInfo, methodInfo));
+        this.dataModel.putLazy("dep_class_sigs", () -> getDepClassSigs(classInfo, methodInfo));
+        this.dataModel.putLazy("dep_class_bodies", () -> getDepClassBodies(classInfo, methodInfo));
+        this.dataModel.putLazy("dep_m_sigs", () -> getDepBrief(methodInfo));
+        this.dataModel.putLazy("dep_m_bodies", () -> getDepBodies(methodInfo));
+        this.dataModel.putLazy("dep_c_sigs", () -> getDepConstructorSigs(classInfo, methodInfo));
+        this.dataModel.putLazy("dep_c_bodies", () -> getDepConstructorBodies(classInfo, methodInfo));
+        this.dataModel.putLazy("dep_fields", () -> getDepFields(classInfo, methodInfo));
+        this.dataModel.putLazy("dep_gs_sigs", () -> getDepGSSigs(classInfo, methodInfo));
+        this.dataModel.putLazy("dep_gs_bodies", () -> getDepGSBodies(classInfo, methodInfo));
+        this.dataModel.putLazy("dep_m_sigs_ano_com", () -> {
+            // computed once, dep_class_sigs is shared with the template
+            Map<String, String> depBrief = getDepBriefWithAnoAndCom(classInfo, methodInfo);
+            @SuppressWarnings("unchecked")
+            Map<String, String> depClassSigs = (Map<String, String>) this.dataModel.getValue("dep_class_sigs");
+            if (isTokenExceed(methodInfo.getFull_method_info(), depClassSigs, depBrief)) {
+                return getDepBriefWithAno(classInfo, methodInfo);
+            }
+            return depBrief;
+        });
+        this.dataModel.putLazy("project_full_code", () -> getFullProjectCode(promptInfo.getClassName(), config));
         this.dataModel.put("method_name", promptInfo.getMethodName());
         this.dataModel.put("full_class_name",promptInfo.getFullClassName());
         this.dataModel.put("method_sig", promptInfo.getMethodSignature());
-        this.dataModel.put("method_body", promptInfo.getMethodInfo().sourceCode);
+        this.dataModel.put("method_body", promptInfo.getMethodInfo().getSourceCode());
         this.dataModel.put("class_name", promptInfo.getClassName());
         this.dataModel.put("class_sig", promptInfo.getClassInfo().classSignature);
         this.dataModel.put("package", promptInfo.getClassInfo().packageName);
-        this.dataModel.put("class_body", promptInfo.getClassInfo().classDeclarationCode);
-        this.dataModel.put("file_content", promptInfo.getClassInfo().compilationUnitCode);
+        this.dataModel.put("class_body", promptInfo.getClassInfo().getClassDeclarationCode());
+        this.dataModel.put("file_content", promptInfo.getClassInfo().getCompilationUnitCode());
         this.dataModel.put("imports", AbstractRunner.joinLines(promptInfo.getClassInfo().imports));
         this.dataModel.put("fields", AbstractRunner.joinLines(promptInfo.getClassInfo().fields));
-        this.dataModel.put("full_method_info",promptInfo.getMethodInfo().full_method_info);
+        this.dataModel.put("full_method_info",promptInfo.getMethodInfo().getFull_method_info());
         this.dataModel.put("subClasses",promptInfo.getClassInfo().subClasses);
         if (!promptInfo.getClassInfo().constructorSigs.isEmpty()) {
             this.dataModel.put("constructor_sigs", AbstractRunner.joinLines(promptInfo.getClassInfo().constructorBrief));
-            this.dataModel.put("constructor_bodies", AbstractRunner.getBodies(config, promptInfo.getClassInfo(), promptInfo.getClassInfo().constructorSigs));
+            this.dataModel.putLazy("constructor_bodies", () -> AbstractRunner.getBodies(config, classInfo, classInfo.constructorSigs));
         } else {
             this.dataModel.put("constructor_sigs", null);
             this.dataModel.put("constructor_bodies", null);
         }
         if (!promptInfo.getClassInfo().getterSetterSigs.isEmpty()) {
             this.dataModel.put("getter_setter_sigs", AbstractRunner.joinLines(promptInfo.getClassInfo().getterSetterBrief));
-            this.dataModel.put("getter_setter_bodies", AbstractRunner.getBodies(config, promptInfo.getClassInfo(), promptInfo.getClassInfo().getterSetterSigs));
+            this.dataModel.putLazy("getter_setter_bodies", () -> AbstractRunner.getBodies(config, classInfo, classInfo.getterSetterSigs));
         } else {
             this.dataModel.put("getter_setter_sigs", null);
             this.dataModel.put("getter_setter_bodies", null);
@@ -166,14 +185,14 @@ public class PromptTemplate {
             this.dataModel.put("other_method_bodies", null);
         }
         if (config.getExamplePath() != null) {
-            ExampleUsage exampleUsage = new ExampleUsage(config.getExamplePath(), promptInfo.className);
-            this.dataModel.put("example_usage", exampleUsage.getShortestUsage(promptInfo.getMethodInfo().methodSignature));
+            this.dataModel.putLazy("example_usage", () -> new ExampleUsage(config.getExamplePath(), promptInfo.className)
+                    .getShortestUsage(methodInfo.methodSignature));
         }
         //add javaDocs
         String javadocs=promptInfo.getMethodInfo().getMethod_comment();
         this.dataModel.put("java_doc",javadocs);
-        this.dataModel.put("java_doc_code",getJavaDocCodeExample(javadocs));
-        this.dataModel.put("doc_infos",getSnippetCode(promptInfo.getMethodInfo().getMethodName(),config));
+        this.dataModel.putLazy("java_doc_code", () -> getJavaDocCodeExample(javadocs));
+        this.dataModel.putLazy("doc_infos", () -> getSnippetCode(methodInfo.getMethodName(), config));
         //add hits
         if (promptInfo.getSliceStep() != null) {
             this.dataModel.put("step_desp", promptInfo.getSliceStep().getDesp());
@@ -183,11 +202,13 @@ public class PromptTemplate {
             this.dataModel.put("step_code", "");
         }
         //add target method invocation example in the project
-        Map<String, List<String>> invocationCodeMap = get_method_invocation_code(Paths.get(config.tmpOutput.toString(),
-                "methodExampleCode.json").toString(), promptInfo.getFullClassName(), promptInfo.getMethodSignature());
-        if(invocationCodeMap!=null){
-            this.dataModel.put("method_invocation_codes_innerclass", invocationCodeMap.get("inner_class_code"));
-            this.dataModel.put("method_invocation_codes_outerclass", invocationCodeMap.get("outer_class_code"));
+        String invocationCodePath = Paths.get(config.tmpOutput.toString(), "methodExampleCode.json").toString();
+        if (Files.exists(Paths.get(invocationCodePath))) {
+            // both lists come from one read of the json, whichever the template uses first
+            this.dataModel.putLazy("method_invocation_codes", () -> get_method_invocation_code(invocationCodePath,
+                    promptInfo.getFullClassName(), promptInfo.getMethodSignature()));
+            this.dataModel.putLazy("method_invocation_codes_innerclass", () -> getInvocationCodes("inner_class_code"));
+            this.dataModel.putLazy("method_invocation_codes_outerclass", () -> getInvocationCodes("outer_class_code"));
         }
 
         for (Map.Entry<String, String> entry : promptInfo.getConstructorDeps().entrySet()) {
@@ -213,6 +234,12 @@ public class PromptTemplate {
 
     }
 
+    @SuppressWarnings("unchecked")
+    private List<String> getInvocationCodes(String key) throws IOException {
+        Map<String, List<String>> invocationCodeMap = (Map<String, List<String>>) this.dataModel.getValue("method_invocation_codes");
+        return invocationCodeMap == null ? null : invocationCodeMap.get(key);
+    }
+
     public static void main(String[] args) {
         //add object creator example in the project
         List<String> invocation_codes=new ArrayList<>();
@@ -276,14 +303,9 @@ public class PromptTemplate {
         Map<String, String> depBrief = new HashMap<>();
         for (Map.Entry<String, Set<String>> entry : methodInfo.dependentMethods.entrySet()) {
             String depClassName = entry.getKey();
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depBrief;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depBrief;
             }
             String info = "";
             for (String depMethodSig : entry.getValue()) {
@@ -366,14 +388,9 @@ public class PromptTemplate {
         Map<String, String> depBodies = new HashMap<>();
         for (Map.Entry<String, Set<String>> entry : methodInfo.dependentMethods.entrySet()) {
             String depClassName = entry.getKey();
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depBodies;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depBodies;
             }
             String info = "";
             for (String depMethodSig : entry.getValue()) {
@@ -381,7 +398,7 @@ public class PromptTemplate {
                 if (depMethodInfo == null) {
                     continue;
                 }
-                info += depMethodInfo.sourceCode + "\n";
+                info += depMethodInfo.getSourceCode() + "\n";
             }
             depBodies.put(depClassName, info.trim());
         }
@@ -392,14 +409,9 @@ public class PromptTemplate {
         Map<String, String> depFields = new HashMap<>();
         for (Map.Entry<String, Set<String>> entry : classInfo.constructorDeps.entrySet()) {
             String depClassName = entry.getKey();
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depFields;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depFields;
             }
             depFields.put(depClassName, AbstractRunner.joinLines(depClassInfo.fields));
         }
@@ -409,14 +421,9 @@ public class PromptTemplate {
             if (depFields.containsKey(depClassName)) {
                 continue;
             }
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depFields;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depFields;
             }
             depFields.put(depClassName, AbstractRunner.joinLines(depClassInfo.fields));
         }
@@ -427,14 +434,9 @@ public class PromptTemplate {
         Map<String, String> depConstructorSigs = new HashMap<>();
         for (Map.Entry<String, Set<String>> entry : classInfo.constructorDeps.entrySet()) {
             String depClassName = entry.getKey();
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depConstructorSigs;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depConstructorSigs;
             }
             depConstructorSigs.put(depClassName, AbstractRunner.joinLines(depClassInfo.constructorBrief));
         }
@@ -444,14 +446,9 @@ public class PromptTemplate {
             if (depConstructorSigs.containsKey(depClassName)) {
                 continue;
             }
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depConstructorSigs;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depConstructorSigs;
             }
             depConstructorSigs.put(depClassName, AbstractRunner.joinLines(depClassInfo.constructorBrief));
         }
@@ -462,14 +459,9 @@ public class PromptTemplate {
         Map<String, String> depConstructorBodies = new HashMap<>();
         for (Map.Entry<String, Set<String>> entry : classInfo.constructorDeps.entrySet()) {
             String depClassName = entry.getKey();
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depConstructorBodies;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depConstructorBodies;
             }
 
             String info = "";
@@ -478,7 +470,7 @@ public class PromptTemplate {
                 if (depConstructorInfo == null) {
                     continue;
                 }
-                info += depConstructorInfo.sourceCode + "\n";
+                info += depConstructorInfo.getSourceCode() + "\n";
             }
             depConstructorBodies.put(depClassName, info.trim());
         }
@@ -488,14 +480,9 @@ public class PromptTemplate {
             if (depConstructorBodies.containsKey(depClassName)) {
                 continue;
             }
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depConstructorBodies;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depConstructorBodies;
             }
 
             String info = "";
@@ -504,7 +491,7 @@ public class PromptTemplate {
                 if (depConstructorInfo == null) {
                     continue;
                 }
-                info += depConstructorInfo.sourceCode + "\n";
+                info += depConstructorInfo.getSourceCode() + "\n";
             }
             depConstructorBodies.put(depClassName, info.trim());
         }
@@ -515,13 +502,7 @@ public class PromptTemplate {
         Map<String, String> depClassSigs = new HashMap<>();
         for (Map.Entry<String, Set<String>> entry : classInfo.constructorDeps.entrySet()) {
             String depClassName = entry.getKey();
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-//                return depClassSigs;
-                continue;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
                 continue;
             }
@@ -533,13 +514,7 @@ public class PromptTemplate {
             if (depClassSigs.containsKey(depClassName)) {
                 continue;
             }
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-//                return depClassSigs;
-                continue;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
                 continue;
             }
@@ -552,14 +527,9 @@ public class PromptTemplate {
         Map<String, ClassInfo> depClassSigs = new HashMap<>();
         for (Map.Entry<String, Set<String>> entry : classInfo.constructorDeps.entrySet()) {
             String depClassName = entry.getKey();
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depClassSigs;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depClassSigs;
             }
             depClassSigs.put(depClassName, depClassInfo);
         }
@@ -569,12 +539,7 @@ public class PromptTemplate {
             if (depClassSigs.containsKey(depClassName)) {
                 continue;
             }
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                continue;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
                 continue;
             }
@@ -587,16 +552,11 @@ public class PromptTemplate {
         Map<String, String> depClassBodies = new HashMap<>();
         for (Map.Entry<String, Set<String>> entry : classInfo.constructorDeps.entrySet()) {
             String depClassName = entry.getKey();
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depClassBodies;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depClassBodies;
             }
-            depClassBodies.put(depClassName, depClassInfo.classDeclarationCode);
+            depClassBodies.put(depClassName, depClassInfo.getClassDeclarationCode());
         }
 
         for (Map.Entry<String, Set<String>> entry : methodInfo.dependentMethods.entrySet()) {
@@ -604,16 +564,11 @@ public class PromptTemplate {
             if (depClassBodies.containsKey(depClassName)) {
                 continue;
             }
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depClassBodies;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depClassBodies;
             }
-            depClassBodies.put(depClassName, depClassInfo.classDeclarationCode);
+            depClassBodies.put(depClassName, depClassInfo.getClassDeclarationCode());
         }
         return depClassBodies;
     }
@@ -622,14 +577,9 @@ public class PromptTemplate {
         Map<String, String> depPackages = new HashMap<>();
         for (Map.Entry<String, Set<String>> entry : classInfo.constructorDeps.entrySet()) {
             String depClassName = entry.getKey();
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depPackages;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depPackages;
             }
             depPackages.put(depClassName, depClassInfo.packageName);
         }
@@ -639,14 +589,9 @@ public class PromptTemplate {
             if (depPackages.containsKey(depClassName)) {
                 continue;
             }
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depPackages;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depPackages;
             }
             depPackages.put(depClassName, depClassInfo.packageName);
         }
@@ -657,14 +602,9 @@ public class PromptTemplate {
         Map<String, String> depImports = new HashMap<>();
         for (Map.Entry<String, Set<String>> entry : classInfo.constructorDeps.entrySet()) {
             String depClassName = entry.getKey();
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depImports;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depImports;
             }
             depImports.put(depClassName, AbstractRunner.joinLines(depClassInfo.imports));
         }
@@ -674,14 +614,9 @@ public class PromptTemplate {
             if (depImports.containsKey(depClassName)) {
                 continue;
             }
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depImports;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depImports;
             }
             depImports.put(depClassName, AbstractRunner.joinLines(depClassInfo.imports));
         }
@@ -692,14 +627,9 @@ public class PromptTemplate {
         Map<String, String> depGSSigs = new HashMap<>();
         for (Map.Entry<String, Set<String>> entry : classInfo.constructorDeps.entrySet()) {
             String depClassName = entry.getKey();
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depGSSigs;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depGSSigs;
             }
             depGSSigs.put(depClassName, AbstractRunner.joinLines(depClassInfo.getterSetterSigs));
         }
@@ -709,14 +639,9 @@ public class PromptTemplate {
             if (depGSSigs.containsKey(depClassName)) {
                 continue;
             }
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depGSSigs;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depGSSigs;
             }
             depGSSigs.put(depClassName, AbstractRunner.joinLines(depClassInfo.getterSetterSigs));
         }
@@ -727,14 +652,9 @@ public class PromptTemplate {
         Map<String, String> depGSBodies = new HashMap<>();
         for (Map.Entry<String, Set<String>> entry : classInfo.constructorDeps.entrySet()) {
             String depClassName = entry.getKey();
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depGSBodies;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depGSBodies;
             }
 
             String info = "";
@@ -743,7 +663,7 @@ public class PromptTemplate {
                 if (depConstructorInfo == null) {
                     continue;
                 }
-                info += depConstructorInfo.sourceCode + "\n";
+                info += depConstructorInfo.getSourceCode() + "\n";
             }
             depGSBodies.put(depClassName, info.trim());
         }
@@ -753,14 +673,9 @@ public class PromptTemplate {
             if (depGSBodies.containsKey(depClassName)) {
                 continue;
             }
-            String fullDepClassName = Task.getFullClassName(config, depClassName);
-            Path depClassInfoPath = config.getParseOutput().resolve(fullDepClassName.replace(".", File.separator)).resolve("class.json");
-            if (!depClassInfoPath.toFile().exists()) {
-                return depGSBodies;
-            }
-            ClassInfo depClassInfo = GSON.fromJson(new String(Files.readAllBytes(depClassInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            ClassInfo depClassInfo = AbstractRunner.getClassInfo(config, depClassName);
             if (depClassInfo == null) {
-                continue;
+                return depGSBodies;
             }
 
             String info = "";
@@ -769,7 +684,7 @@ public class PromptTemplate {
                 if (depConstructorInfo == null) {
                     continue;
                 }
-                info += depConstructorInfo.sourceCode + "\n";
+                info += depConstructorInfo.getSourceCode() + "\n";
             }
             depGSBodies.put(depClassName, info.trim());
         }
@@ -777,21 +692,7 @@ public class PromptTemplate {
     }
 
     public String getFullProjectCode(String className, Config config) {
-        String fullProjectCode = "";
-        List<String> classPaths = ProjectParser.scanSourceDirectory(config.project);
-        // read the file content of each path and append to fullProjectCode
-        for (String path : classPaths) {
-            String cn = path.substring(path.lastIndexOf(File.separator) + 1, path.lastIndexOf("."));
-            if (cn.equals(className)) {
-                continue;
-            }
-            try {
-                fullProjectCode += new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8) + "\n";
-            } catch (IOException e) {
-                config.getLogger().warn("Failed to append class code for " + className);
-            }
-        }
-        return fullProjectCode;
+        return config.getProjectCodeSnapshot().getCodeWithout(className);
     }
     public String getJavaDocCodeExample(String javadocs) {
         List<String> lines = Arrays.asList(javadocs.split("\r\n"));
@@ -800,10 +701,7 @@ public class PromptTemplate {
         return  String.join("\r\n", javaDocCodeExample);
     }
     public List<String> getSnippetCode(String methodName, Config config) {
-        String absolutePath = config.getProject().getBasedir().getAbsolutePath();
-        SnippetAnalyzer snippetAnalyzer=new SnippetAnalyzer();
-        List<String> docSnippets = snippetAnalyzer.getDocSnippets(absolutePath, methodName);
-        return docSnippets;
+        return config.getSnippetIndex().getSnippets(methodName);
     }
 
 }
@@ -0,0 +1,116 @@
+package zju.cst.aces.prompt.template;
+
+import freemarker.cache.MruCacheStorage;
+import freemarker.core.ParseException;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateNotFoundException;
+import zju.cst.aces.api.config.Config;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One FreeMarker configuration per prompt directory, shared by all prompts. The configuration caches the parsed
+ * templates; with hot reload the template files are checked for changes at most once per second, otherwise they are
+ * loaded once per run.
+ */
+public class TemplateRegistry {
+    public static final String TEMPLATE_KEY_PREFIX = "PROMPT_TEMPLATE_";
+    private static final String CLASSPATH_KEY = "classpath:/prompt";
+    private static final long HOT_RELOAD_DELAY_MILLIS = 1_000;
+    private static final Pattern EXPRESSION = Pattern.compile("\\$\\{[^}]*}|<#(?:if|elseif|list|assign)\\b[^>]*>");
+    private static final Pattern NAME = Pattern.compile("(?<![\\w.?])[a-zA-Z_]\\w*");
+    private static final Map<String, Configuration> CONFIGURATIONS = new ConcurrentHashMap<>();
+    // a reloaded template is a new object, the entry of the old one goes with it
+    private static final Map<Template, List<String>> REFERENCED_NAMES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private TemplateRegistry() {
+    }
+
+    /**
+     * Get the configuration of the prompt directory, the templates of the jar if promptPath is null.
+     */
+    public static Configuration getConfiguration(Path promptPath, boolean hotReload) {
+        String key = (promptPath == null ? CLASSPATH_KEY : promptPath.toAbsolutePath().normalize().toString()) + "#" + hotReload;
+        return CONFIGURATIONS.computeIfAbsent(key, k -> createConfiguration(promptPath, hotReload));
+    }
+
+    public static Template getTemplate(Config config, String templateFileName) throws IOException {
+        return getConfiguration(config.getPromptPath(), config.isEnablePromptHotReload()).getTemplate(templateFileName);
+    }
+
+    /**
+     * The names the template reads in its interpolations and in its if and list directives, in the order of their
+     * first use. Loop variables and built-ins such as ?keys are included, so callers look up the keys they know.
+     * Computed once per parsed template.
+     */
+    public static List<String> getReferencedNames(Template template) {
+        return REFERENCED_NAMES.computeIfAbsent(template, t -> {
+            Matcher expression = EXPRESSION.matcher(t.toString());
+            List<String> names = new ArrayList<>();
+            while (expression.find()) {
+                Matcher name = NAME.matcher(expression.group());
+                while (name.find()) {
+                    if (!names.contains(name.group())) {
+                        names.add(name.group());
+                    }
+                }
+            }
+            return Collections.unmodifiableList(names);
+        });
+    }
+
+    /**
+     * Parse all the templates named by the PROMPT_TEMPLATE_* properties, so a broken template fails at startup.
+     * A template missing from a custom prompt directory is only reported, as prompts without it still render.
+     */
+    public static void precompile(Config config) {
+        if (config.getProperties() == null) {
+            return;
+        }
+        for (String name : config.getProperties().stringPropertyNames()) {
+            if (!name.startsWith(TEMPLATE_KEY_PREFIX)) {
+                continue;
+            }
+            String templateFileName = config.getProperties().getProperty(name).trim();
+            try {
+                Template template = getTemplate(config, templateFileName);
+                config.getLogger().debug("Prompt template " + templateFileName + " uses " + getReferencedNames(template));
+            } catch (TemplateNotFoundException e) {
+                config.getLogger().warn("Prompt template " + templateFileName + " of " + name + " not found in "
+                        + (config.getPromptPath() == null ? CLASSPATH_KEY : config.getPromptPath()));
+            } catch (ParseException e) {
+                throw new RuntimeException("In TemplateRegistry.precompile: invalid prompt template " + templateFileName + ": " + e.getMessage());
+            } catch (IOException e) {
+                throw new RuntimeException("In TemplateRegistry.precompile: " + e);
+            }
+        }
+    }
+
+    private static Configuration createConfiguration(Path promptPath, boolean hotReload) {
+        Configuration configuration = new Configuration(Configuration.VERSION_2_3_30);
+        if (promptPath == null) {
+            configuration.setClassForTemplateLoading(PromptTemplate.class, "/prompt");
+        } else {
+            try {
+                configuration.setDirectoryForTemplateLoading(promptPath.toFile());
+            } catch (IOException e) {
+                throw new RuntimeException("In TemplateRegistry.createConfiguration: " + e);
+            }
+        }
+        configuration.setDefaultEncoding("utf-8");
+        // every template of the prompt directory stays parsed
+        configuration.setCacheStorage(new MruCacheStorage(64, 256));
+        configuration.setTemplateUpdateDelayMilliseconds(hotReload ? HOT_RELOAD_DELAY_MILLIS : Long.MAX_VALUE);
+        return configuration;
+    }
+}
@@ -10,9 +10,11 @@ import zju.cst.aces.api.Task;
 import zju.cst.aces.api.config.Config;
 import zju.cst.aces.dto.*;
 import zju.cst.aces.parser.ClassParser;
+import zju.cst.aces.parser.ParseInfoStore;
 import zju.cst.aces.prompt.PromptGenerator;
 import zju.cst.aces.util.CodeExtractor;
 import zju.cst.aces.util.TestProcessor;
+import zju.cst.aces.util.TokenBudget;
 import zju.cst.aces.util.TokenCounter;
 
 import java.io.*;
@@ -156,7 +158,7 @@ public abstract class AbstractRunner {
         if (classInfo.hasConstructor) {
             information += joinLines(classInfo.constructorBrief) + "\n";
         }
-        information += methodInfo.sourceCode + "\n}";
+        information += methodInfo.getSourceCode() + "\n}";
 
         promptInfo.setContext(information);
         promptInfo.setOtherMethodBrief(methods);
@@ -205,7 +207,7 @@ public abstract class AbstractRunner {
                     }
                     // only add the methods in focal class that are invoked
                     otherBriefMethods.add(otherMethodInfo.brief);
-                    otherMethodBodies.add(otherMethodInfo.sourceCode);
+                    otherMethodBodies.add(otherMethodInfo.getSourceCode());
                 }
                 continue;
             }
@@ -240,7 +242,7 @@ public abstract class AbstractRunner {
 
         otherMethods += joinLines(otherBriefMethods) + "\n";
         otherFullMethods += joinLines(otherMethodBodies) + "\n";
-        information += methodInfo.sourceCode + "\n}";
+        information += methodInfo.getSourceCode() + "\n}";
 
         promptInfo.setContext(information);
         promptInfo.setOtherMethodBrief(otherMethods);
@@ -282,18 +284,24 @@ public abstract class AbstractRunner {
     public static ClassInfo getClassInfo(Config config, String className) throws IOException {
         try {
             String fullClassName = Task.getFullClassName(config, className);
-            Path classInfoPath = config.getParseOutput().resolve(fullClassName.replace(".", File.separator)).resolve("class.json");
-            if (!classInfoPath.toFile().exists()) {
-
-                return null;
+            ParseInfoStore parseStore = config.getParseStore();
+            if (parseStore != null) {
+                return bindSource(config, config.getInfoCache().get("store:" + ParseInfoStore.classKey(fullClassName),
+                        ClassInfo.class, () -> parseStore.getClassInfo(fullClassName)));
             }
-            return GSON.fromJson(new String(Files.readAllBytes(classInfoPath), StandardCharsets.UTF_8), ClassInfo.class);
+            Path classInfoPath = config.getParseOutput().resolve(fullClassName.replace(".", File.separator)).resolve("class.json");
+            return bindSource(config, config.getInfoCache().getClassInfo(classInfoPath));
         } catch (InvalidPathException e) {
             return null;
         }
     }
 
     public static MethodInfo getMethodInfo(Config config, ClassInfo info, String mSig) throws IOException {
+        ParseInfoStore parseStore = config.getParseStore();
+        if (parseStore != null) {
+            return bindSource(config, config.getInfoCache().get("store:" + ParseInfoStore.methodKey(info.fullClassName, mSig),
+                    MethodInfo.class, () -> parseStore.getMethodInfo(info.fullClassName, mSig)));
+        }
         String packagePath = info.getPackageName()
                 .replace("package ", "")
                 .replace(".", File.separator)
@@ -302,10 +310,21 @@ public abstract class AbstractRunner {
                 .resolve(packagePath)
                 .resolve(info.className)
                 .resolve(ClassParser.getFilePathBySig(mSig, info));
-        if (!depMethodInfoPath.toFile().exists()) {
-            return null;
+        return bindSource(config, config.getInfoCache().getMethodInfo(depMethodInfoPath));
+    }
+
+    private static ClassInfo bindSource(Config config, ClassInfo classInfo) {
+        if (classInfo != null && classInfo.getCompilationUnitRef() != null) {
+            classInfo.bindSource(config.getSourceSnapshot());
         }
-        return GSON.fromJson(new String(Files.readAllBytes(depMethodInfoPath), StandardCharsets.UTF_8), MethodInfo.class);
+        return classInfo;
+    }
+
+    private static MethodInfo bindSource(Config config, MethodInfo methodInfo) {
+        if (methodInfo != null && methodInfo.getSourceCodeRef() != null) {
+            methodInfo.bindSource(config.getSourceSnapshot());
+        }
+        return methodInfo;
     }
 
     public static String getDepInfo(Config config, String depClassName, Set<String> depMethods) throws IOException {
@@ -355,7 +374,7 @@ public abstract class AbstractRunner {
 
     public static String getBody(Config config, ClassInfo info, String Sig) throws IOException {
         MethodInfo mi = getMethodInfo(config, info, Sig);
-        return mi.sourceCode;
+        return mi.getSourceCode();
     }
 
     public void exportRecord(PromptInfo promptInfo, ClassInfo classInfo, int attempt) {
@@ -473,6 +492,9 @@ public abstract class AbstractRunner {
             map.put("success", String.valueOf(success));
             map.put("round", String.valueOf(promptInfo.round));
             map.put("inputTokenConsumption", String.valueOf(promptInfo.getInputTokenCount()));
+            map.put("cachedInputTokenConsumption", String.valueOf(promptInfo.getCachedInputTokenCount()));
+            map.put("promptCacheHitRatio", promptInfo.getInputTokenCount() > 0
+                    ? String.format("%.4f", (double) promptInfo.getCachedInputTokenCount() / promptInfo.getInputTokenCount()) : "0");
             map.put("outputTokenConsumption", String.valueOf(promptInfo.getOutputTokenCount()));
             if (config.getPhaseType().equals("SOFIA"))
                 map.put("sofiaActivations", String.valueOf(promptInfo.getSofiaActivations()));
@@ -589,12 +611,13 @@ public abstract class AbstractRunner {
     }
 
     public static boolean isExceedMaxTokens(int maxPromptTokens, List<ChatMessage> prompt) {
-        int count = 0;
+        TokenBudget budget = new TokenBudget(null, maxPromptTokens);
         for (ChatMessage p : prompt) {
-            count += TokenCounter.countToken(p.getContent());
-        }
-        if (count > maxPromptTokens) {
-            return true;
+            budget.add(p.getContent());
+            // the rest of the messages need not be counted
+            if (budget.isExceeded()) {
+                return true;
+            }
         }
         return false;
     }
@@ -3,6 +3,7 @@ package zju.cst.aces.runner;
 import zju.cst.aces.dto.ClassInfo;
 import zju.cst.aces.dto.MethodInfo;
 import zju.cst.aces.api.config.Config;
+import zju.cst.aces.parser.JobManifest;
 import zju.cst.aces.runner.solution_runner.ChatTesterRunner;
 import zju.cst.aces.runner.solution_runner.HITSRunner;
 import zju.cst.aces.runner.solution_runner.MUTAPRunner;
@@ -14,26 +15,42 @@ import zju.cst.aces.util.ClassNameProcessor;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.*;
 
 public class ClassRunner extends AbstractRunner {
     public ClassInfo classInfo;
+    public JobManifest.ClassJob classJob;
     public File infoDir;
     public int index;
 
     public ClassRunner(Config config, String fullClassName) throws IOException {
         super(config, fullClassName);
         infoDir = config.getParseOutput().resolve(fullClassName.replace(".", File.separator)).toFile();
-        if (!infoDir.isDirectory()) {
+        if (config.getParseStore() == null && !infoDir.isDirectory()) {
             config.getLogger().warn("Error: " + fullClassName + " no parsed info found");
         }
-        File classInfoFile = new File(infoDir + File.separator + "class.json");
-        classInfo = GSON.fromJson(new String(Files.readAllBytes(classInfoFile.toPath()), StandardCharsets.UTF_8), ClassInfo.class);
+        classInfo = getClassInfo(config, fullClassName);
+        if (classInfo == null) {
+            throw new IOException("No parsed info found for " + fullClassName);
+        }
+        classJob = config.getJobManifest().get(fullClassName);
+    }
+
+    /**
+     * Get the focal methods of the class, from the job manifest if the class passed the class filter.
+     */
+    public Collection<String> getFocalMethodSigs() {
+        if (classJob == null) {
+            return classInfo.methodSigs.keySet();
+        }
+        List<String> methodSigs = new ArrayList<>();
+        for (JobManifest.MethodJob methodJob : classJob.methods) {
+            methodSigs.add(methodJob.signature);
+        }
+        return methodSigs;
     }
 
     @Override
@@ -41,9 +58,9 @@ public class ClassRunner extends AbstractRunner {
         if (config.isEnableMultithreading() == true) {
             methodJob();
         } else {
-            for (String mSig : classInfo.methodSigs.keySet()) {
+            for (String mSig : getFocalMethodSigs()) {
                 MethodInfo methodInfo = getMethodInfo(config, classInfo, mSig);
-                if (!Counter.filter(methodInfo)) {
+                if (methodInfo == null || classJob == null && !Counter.filter(methodInfo)) {
                     config.getLogger().info("Skip method: " + mSig + " in class: " + fullClassName);
                     continue;
                 }
@@ -61,7 +78,7 @@ public class ClassRunner extends AbstractRunner {
     public void methodJob() {
         ExecutorService executor = Executors.newFixedThreadPool(config.getMethodThreads());
         List<Future<String>> futures = new ArrayList<>();
-        for (String mSig : classInfo.methodSigs.keySet()) {
+        for (String mSig : getFocalMethodSigs()) {
             Callable<String> callable = new Callable<String>() {
                 @Override
                 public String call() throws Exception {
@@ -69,7 +86,7 @@ public class ClassRunner extends AbstractRunner {
                     if (methodInfo == null) {
                         return "No parsed info found for " + mSig + " in " + fullClassName;
                     }
-                    if (!Counter.filter(methodInfo)) {
+                    if (classJob == null && !Counter.filter(methodInfo)) {
                         return "Skip method: " + mSig + " in class: " + fullClassName;
                     }
 //                    new MethodRunner(config, fullClassName, methodInfo).start();
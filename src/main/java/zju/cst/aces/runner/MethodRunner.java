@@ -7,6 +7,7 @@ import zju.cst.aces.api.impl.PromptConstructorImpl;
 import zju.cst.aces.dto.*;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
@@ -22,7 +23,15 @@ public class MethodRunner extends ClassRunner {
 
     @Override
     public void start() throws IOException {
-        if (!config.isStopWhenSuccess() && config.isEnableMultithreading()) {
+        // the runners of the solutions override startRounds with their own generation
+        if (config.getSamplesPerRequest() > 1 && getClass() == MethodRunner.class) {
+            startSampledRounds();
+            return;
+        }
+        if (!config.isStopWhenSuccess() && config.isEnableMultithreading() && config.isEnableAsyncChat()
+                && getClass() == MethodRunner.class) {
+            startAsyncRounds();
+        } else if (!config.isStopWhenSuccess() && config.isEnableMultithreading()) {
             ExecutorService executor = Executors.newFixedThreadPool(config.getTestNumber());
             List<Future<String>> futures = new ArrayList<>();
             for (int num = 0; num < config.getTestNumber(); num++) {
@@ -69,6 +78,90 @@ public class MethodRunner extends ClassRunner {
         // Test Generation Phase
         phase.generateTest(pc);
 
+        return validateRounds(phase, pc, num, startTime);
+    }
+
+    /**
+     * Send the round 0 requests of all attempts with chatAsync, no thread waits for a response. Each attempt is
+     * validated and repaired on the executor once its test has arrived.
+     */
+    public void startAsyncRounds() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(config.getTestNumber());
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int num = 0; num < config.getTestNumber(); num++) {
+            Phase phase = PhaseImpl.createPhase(config);
+            PromptConstructorImpl pc = phase.generatePrompt(classInfo, methodInfo, num);
+            pc.getPromptInfo().setRound(0);
+
+            long startTime = System.nanoTime();
+            int finalNum = num;
+            futures.add(phase.generateTestAsync(pc).thenApplyAsync(generated -> {
+                try {
+                    return validateRounds(phase, pc, finalNum, startTime);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        for (CompletableFuture<Boolean> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                e.printStackTrace();
+            }
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Run the attempts in groups of samplesPerRequest. The round 0 tests of a group come from the choices of one
+     * request, then each attempt is validated and repaired on its own track.
+     */
+    public void startSampledRounds() throws IOException {
+        int samples = config.getSamplesPerRequest();
+        for (int first = 0; first < config.getTestNumber(); first += samples) {
+            Phase phase = PhaseImpl.createPhase(config);
+            List<PromptConstructorImpl> pcs = new ArrayList<>();
+            for (int num = first; num < Math.min(first + samples, config.getTestNumber()); num++) {
+                PromptConstructorImpl pc = phase.generatePrompt(classInfo, methodInfo, num);
+                pc.getPromptInfo().setRound(0);
+                pcs.add(pc);
+            }
+
+            long startTime = System.nanoTime();
+            phase.generateTests(pcs);
+
+            if (!config.isStopWhenSuccess() && config.isEnableMultithreading()) {
+                ExecutorService executor = Executors.newFixedThreadPool(pcs.size());
+                List<Future<Boolean>> futures = new ArrayList<>();
+                for (PromptConstructorImpl pc : pcs) {
+                    futures.add(executor.submit(() -> validateRounds(phase, pc, pc.getPromptInfo().getTestNum(), startTime)));
+                }
+                for (Future<Boolean> future : futures) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        e.printStackTrace();
+                    }
+                }
+                executor.shutdown();
+            } else {
+                for (PromptConstructorImpl pc : pcs) {
+                    boolean result = validateRounds(phase, pc, pc.getPromptInfo().getTestNum(), startTime);
+                    if (result && config.isStopWhenSuccess()) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Validate the generated test and repair it for the remaining rounds.
+     * @return true if the test passed the validation
+     */
+    public boolean validateRounds(Phase phase, PromptConstructorImpl pc, int num, long startTime) throws IOException {
+        PromptInfo promptInfo = pc.getPromptInfo();
 
         // Validation
         if (phase.validateTest(pc)) {
@@ -210,6 +210,7 @@ public class ChatTesterRunner extends MethodRunner {
         String code = ChatGenerator.extractCodeByContent(content);
 
         record.setPromptToken(response.getUsage().getPromptTokens());
+        record.setCachedPromptToken(response.getUsage().getCachedTokens());
         record.setResponseToken(response.getUsage().getCompletionTokens());
         record.setPrompt(prompt);
         record.setResponse(content);
@@ -81,7 +81,7 @@ public class SofiaRunner extends MethodRunner {
                     }
                     // only add the methods in focal class that are invoked
                     otherBriefMethods.add(otherMethodInfo.brief);
-                    otherMethodBodies.add(otherMethodInfo.sourceCode);
+                    otherMethodBodies.add(otherMethodInfo.getSourceCode());
                 }
                 continue;
             }
@@ -117,7 +117,7 @@ public class SofiaRunner extends MethodRunner {
 
         otherMethods += joinLines(otherBriefMethods) + "\n";
         otherFullMethods += joinLines(otherMethodBodies) + "\n";
-        information += methodInfo.sourceCode + "\n}";
+        information += methodInfo.getSourceCode() + "\n}";
 
         promptInfo.setContext(information);
         promptInfo.setOtherMethodBrief(otherMethods);
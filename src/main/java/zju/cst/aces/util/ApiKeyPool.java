@@ -0,0 +1,274 @@
+package zju.cst.aces.util;
+
+import com.google.gson.Gson;
+import okhttp3.Response;
+import zju.cst.aces.dto.ChatUsage;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of the api keys shared by all requests of a config. Each request takes the least loaded healthy key and
+ * gives it back with the status of the response. A key that answers 401/403, 429 or 5xx is quarantined for a while,
+ * it is only taken again when every key is quarantined.
+ */
+public class ApiKeyPool {
+    private static final long AUTH_QUARANTINE_MILLIS = 5 * 60_000;
+    private static final long MAX_AUTH_QUARANTINE_MILLIS = 60 * 60_000;
+    private static final long SERVER_QUARANTINE_MILLIS = 2_000;
+    private static final long MAX_SERVER_QUARANTINE_MILLIS = 60_000;
+    private static final long RATE_LIMIT_QUARANTINE_MILLIS = 1_000;
+
+    private final List<KeyState> keys = new ArrayList<>();
+    private int next;
+
+    public ApiKeyPool(String[] apiKeys) {
+        if (apiKeys == null || apiKeys.length == 0) {
+            throw new RuntimeException("apiKeys is null!");
+        }
+        for (String apiKey : apiKeys) {
+            keys.add(new KeyState(apiKey));
+        }
+    }
+
+    /**
+     * Take the key with the fewest requests in flight among the keys out of quarantine, then the one with the most
+     * remaining quota reported by the server. Ties are broken round robin. The key must be released after the request.
+     */
+    public synchronized String acquire() {
+        long now = System.currentTimeMillis();
+        KeyState best = null;
+        for (int i = 0; i < keys.size(); i++) {
+            KeyState state = keys.get((next + i) % keys.size());
+            if (best == null || state.isBetterThan(best, now)) {
+                best = state;
+            }
+        }
+        next = (next + 1) % keys.size();
+        best.inFlight++;
+        best.requests++;
+        return best.apiKey;
+    }
+
+    /**
+     * Give the key back without an outcome, for a request that was not sent or was canceled.
+     */
+    public synchronized void release(String apiKey) {
+        KeyState state = getState(apiKey);
+        if (state != null) {
+            state.inFlight = Math.max(0, state.inFlight - 1);
+        }
+    }
+
+    /**
+     * Give the key back and quarantine it if the response shows it is unusable for now.
+     * @param response null if the request failed without a response
+     * @param retryAfterMillis the wait of a 429 response given by the rate limiter, 0 if unknown
+     */
+    public synchronized void release(String apiKey, Response response, long retryAfterMillis) {
+        KeyState state = getState(apiKey);
+        if (state == null) {
+            return;
+        }
+        state.inFlight = Math.max(0, state.inFlight - 1);
+        if (response == null) {
+            state.failures++;
+            return;
+        }
+        long remainingRequests = parseLong(response.header("x-ratelimit-remaining-requests"));
+        long remainingTokens = parseLong(response.header("x-ratelimit-remaining-tokens"));
+        if (remainingRequests >= 0) {
+            state.remainingRequests = remainingRequests;
+        }
+        if (remainingTokens >= 0) {
+            state.remainingTokens = remainingTokens;
+        }
+        int code = response.code();
+        long now = System.currentTimeMillis();
+        if (response.isSuccessful()) {
+            state.successes++;
+            state.strikes = 0;
+        } else if (code == 401 || code == 403) {
+            state.authErrors++;
+            state.quarantine(now, backoff(AUTH_QUARANTINE_MILLIS, MAX_AUTH_QUARANTINE_MILLIS, state.strikes));
+        } else if (code == 429) {
+            state.rateLimited++;
+            state.quarantine(now, Math.max(RATE_LIMIT_QUARANTINE_MILLIS, retryAfterMillis));
+        } else if (code >= 500) {
+            state.serverErrors++;
+            state.quarantine(now, backoff(SERVER_QUARANTINE_MILLIS, MAX_SERVER_QUARANTINE_MILLIS, state.strikes));
+        } else {
+            state.failures++;
+        }
+    }
+
+    /**
+     * Count the tokens of a successful response against the key.
+     */
+    public synchronized void recordUsage(String apiKey, ChatUsage usage) {
+        KeyState state = getState(apiKey);
+        if (state == null || usage == null) {
+            return;
+        }
+        if (usage.getPromptTokens() != null) {
+            state.promptTokens += usage.getPromptTokens();
+        }
+        if (usage.getCompletionTokens() != null) {
+            state.completionTokens += usage.getCompletionTokens();
+        }
+    }
+
+    public synchronized List<KeyUsage> getUsage() {
+        long now = System.currentTimeMillis();
+        List<KeyUsage> usage = new ArrayList<>();
+        for (KeyState state : keys) {
+            usage.add(new KeyUsage(state, now));
+        }
+        return usage;
+    }
+
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        for (KeyUsage usage : getUsage()) {
+            sb.append(String.format("\n  %s: requests: %d, in flight: %d, success: %d, 429: %d, 401/403: %d, 5xx: %d, failed: %d, tokens: %d/%d%s",
+                    usage.key, usage.requests, usage.inFlight, usage.successes, usage.rateLimited, usage.authErrors,
+                    usage.serverErrors, usage.failures, usage.promptTokens, usage.completionTokens,
+                    usage.quarantinedMillis > 0 ? ", quarantined for " + usage.quarantinedMillis + " ms" : ""));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the per-key counters as json, the keys are masked.
+     */
+    public void save(Path path, Gson gson) throws IOException {
+        Files.createDirectories(path.getParent());
+        try (OutputStreamWriter writer = new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8)) {
+            writer.write(gson.toJson(getUsage()));
+        }
+    }
+
+    private KeyState getState(String apiKey) {
+        for (KeyState state : keys) {
+            if (state.apiKey.equals(apiKey)) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    private static long backoff(long base, long max, int strikes) {
+        return Math.min(max, base << Math.min(strikes, 16));
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String mask(String apiKey) {
+        if (apiKey.length() <= 8) {
+            return "****";
+        }
+        return apiKey.substring(0, 3) + "..." + apiKey.substring(apiKey.length() - 4);
+    }
+
+    private static class KeyState {
+        final String apiKey;
+        int inFlight;
+        long requests;
+        long successes;
+        long rateLimited;
+        long authErrors;
+        long serverErrors;
+        long failures;
+        long promptTokens;
+        long completionTokens;
+        long quarantines;
+        long quarantinedUntil;
+        int strikes;
+        /** last values of the x-ratelimit-remaining-* headers, -1 until the server reports them */
+        long remainingRequests = -1;
+        long remainingTokens = -1;
+
+        KeyState(String apiKey) {
+            this.apiKey = apiKey;
+        }
+
+        void quarantine(long now, long millis) {
+            quarantines++;
+            strikes++;
+            quarantinedUntil = Math.max(quarantinedUntil, now + millis);
+        }
+
+        boolean isBetterThan(KeyState other, long now) {
+            boolean healthy = quarantinedUntil <= now;
+            boolean otherHealthy = other.quarantinedUntil <= now;
+            if (healthy != otherHealthy) {
+                return healthy;
+            }
+            if (!healthy) {
+                // every key is quarantined, take the one that is released first
+                return quarantinedUntil < other.quarantinedUntil;
+            }
+            if (inFlight != other.inFlight) {
+                return inFlight < other.inFlight;
+            }
+            return remaining(remainingTokens) > remaining(other.remainingTokens)
+                    || (remaining(remainingTokens) == remaining(other.remainingTokens)
+                    && remaining(remainingRequests) > remaining(other.remainingRequests));
+        }
+
+        private static long remaining(long value) {
+            return value < 0 ? Long.MAX_VALUE : value;
+        }
+    }
+
+    /**
+     * The exported counters of a key.
+     */
+    public static class KeyUsage {
+        public String key;
+        public int inFlight;
+        public long requests;
+        public long successes;
+        public long rateLimited;
+        public long authErrors;
+        public long serverErrors;
+        public long failures;
+        public long promptTokens;
+        public long completionTokens;
+        public long quarantines;
+        public long quarantinedMillis;
+        public long remainingRequests;
+        public long remainingTokens;
+
+        KeyUsage(KeyState state, long now) {
+            this.key = mask(state.apiKey);
+            this.inFlight = state.inFlight;
+            this.requests = state.requests;
+            this.successes = state.successes;
+            this.rateLimited = state.rateLimited;
+            this.authErrors = state.authErrors;
+            this.serverErrors = state.serverErrors;
+            this.failures = state.failures;
+            this.promptTokens = state.promptTokens;
+            this.completionTokens = state.completionTokens;
+            this.quarantines = state.quarantines;
+            this.quarantinedMillis = Math.max(0, state.quarantinedUntil - now);
+            this.remainingRequests = state.remainingRequests;
+            this.remainingTokens = state.remainingTokens;
+        }
+    }
+}
@@ -2,23 +2,46 @@ package zju.cst.aces.util;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.SerializedName;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.BufferedSource;
 import zju.cst.aces.api.config.Config;
 import zju.cst.aces.api.config.ModelConfig;
+import zju.cst.aces.dto.ChatChoice;
 import zju.cst.aces.dto.ChatMessage;
 import zju.cst.aces.dto.ChatResponse;
+import zju.cst.aces.dto.ChatUsage;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class AskGPT {
     private static final MediaType MEDIA_TYPE = MediaType.parse("application/json");
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+    private static final int MAX_TRY = 5;
+    // delays of the async requests, the callbacks run on the okhttp dispatcher threads and must not sleep
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "AskGPT-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
     public Config config;
 
     public AskGPT(Config config) {
@@ -26,62 +49,547 @@ public class AskGPT {
     }
 
     public ChatResponse askChatGPT(List<ChatMessage> chatMessages) {
-        String apiKey = config.getRandomKey();
-        int maxTry = 5;
+        return askChatGPT(chatMessages, 1);
+    }
+
+    /**
+     * Ask for n choices of the response in one request, backends that ignore the n parameter return one choice.
+     */
+    public ChatResponse askChatGPT(List<ChatMessage> chatMessages, int n) {
+        ResponseCache responseCache = config.getResponseCache();
+        String cacheKey = null;
+        if (responseCache != null) {
+            cacheKey = getCacheKey(chatMessages, n, 0);
+            ChatResponse cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        ChatResponse chatResponse = send(chatMessages, n);
+        if (responseCache != null) {
+            responseCache.put(cacheKey, chatResponse);
+        }
+        return chatResponse;
+    }
+
+    private ChatResponse send(List<ChatMessage> chatMessages, int n) {
+        EndpointRouter router = config.getEndpointRouter();
+        if (config.isEnableHedging() && router.size() > 1) {
+            // a hedged request needs a second call in flight, the async path runs both
+            Exchange exchange = new Exchange(chatMessages, n, MAX_TRY);
+            sendAsync(exchange, null);
+            return exchange.future.join();
+        }
+        ApiKeyPool keyPool = config.getApiKeyPool();
+        RateLimiter rateLimiter = config.getRateLimiter();
+        int tokens = estimateTokens(chatMessages, n);
+        int maxTry = MAX_TRY;
+        String lastUrl = null;
         while (maxTry > 0) {
+            // every try takes the least loaded key, a key that just failed is quarantined by its release
+            String apiKey = keyPool.acquire();
+            // and the fastest endpoint, another one than the endpoint that just failed
+            String url = router.choose(lastUrl);
             Response response = null;
+            long retryAfter = 0;
+            boolean endpointFailed = false;
+            boolean recorded = false;
             try {
-                Map<String, Object> payload = new HashMap<>();
-
-//                if (Objects.equals(config.getModel(), "code-llama") || Objects.equals(config.getModel(), "code-llama-13B")) {
-//                    payload.put("max_tokens", 8092);
-//                }
-
-                ModelConfig modelConfig = config.getModel().getDefaultConfig();
-
-                payload.put("messages", chatMessages);
-                payload.put("model", modelConfig.getModelName());
-                payload.put("temperature", config.getTemperature());
-                payload.put("frequency_penalty", config.getFrequencyPenalty());
-                payload.put("presence_penalty", config.getPresencePenalty());
-                payload.put("max_tokens", config.getMaxResponseTokens());
-                String jsonPayload = GSON.toJson(payload);
-
-                RequestBody body = RequestBody.create(MEDIA_TYPE, jsonPayload);
-                Request request = new Request.Builder().url(modelConfig.getUrl()).post(body).addHeader("Content-Type", "application/json").addHeader("Authorization", "Bearer " + apiKey).build();
-
-                do {
-                    response = config.getClient().newCall(request).execute();
-                    if (response.code() == 429) {
-                        //config.getLogger().info("Waiting 2 hours...");
-                        //Thread.sleep(3600 * 2 * 1000);
-                        config.getLogger().info("Waiting 5 minutes...");
-                        Thread.sleep(5 * 60 * 1000);
-                    }
-                } while (response.code() == 429);
-
+                Request request = buildRequest(chatMessages, n, url, apiKey);
+                // waits for the bucket of the key and for the block set by a 429 of any caller
+                rateLimiter.acquire(apiKey, tokens);
+                Call call = config.getClient().newCall(request);
+                long startNanos = System.nanoTime();
+                response = call.execute();
+                rateLimiter.onResponse(apiKey, response);
+                if (response.code() == 429) {
+                    retryAfter = rateLimiter.onRateLimited(apiKey, response);
+                    config.getLogger().info("Rate limited, waiting " + retryAfter + " ms...");
+                    // rate limits do not count as failed tries
+                    continue;
+                }
 
                 if (!response.isSuccessful()) throw new IOException("Unexpected code " + response);
+                if (response.body() == null) throw new IOException("Response body is null.");
+                ChatResponse chatResponse = readResponse(call, response, startNanos, chatMessages, isStreaming(n));
+                router.onSuccess(url, (System.nanoTime() - startNanos) / 1_000_000);
+                recorded = true;
+                keyPool.recordUsage(apiKey, chatResponse.getUsage());
                 try {
                     Thread.sleep(config.sleepTime);
                 } catch (InterruptedException ie) {
                     throw new RuntimeException("In AskGPT.askChatGPT: " + ie);
                 }
-                if (response.body() == null) throw new IOException("Response body is null.");
-                ChatResponse chatResponse = GSON.fromJson(response.body().string(), ChatResponse.class);
-                response.close();
                 return chatResponse;
             } catch (IOException e) {
-                if (response != null) {
-                    response.close();
-                }
                 config.getLogger().error("In AskGPT.askChatGPT: " + e);
+                // a 4xx is the fault of the request or the key, not of the endpoint
+                endpointFailed = response == null || response.code() >= 500 || response.isSuccessful();
                 maxTry--;
+                lastUrl = url;
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
+            } finally {
+                // a success already ended the request on the endpoint
+                if (!recorded) {
+                    if (endpointFailed) {
+                        router.onFailure(url);
+                    } else {
+                        router.onDone(url);
+                    }
+                }
+                keyPool.release(apiKey, response, retryAfter);
+                if (response != null) {
+                    response.close();
+                }
             }
         }
         config.getLogger().debug("AskGPT: Failed to get response\n");
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Send the request on the okhttp async dispatcher, no thread is blocked while the request is in flight.
+     * The number of requests in flight is bounded per host and per api key by the limiter of the config.
+     * @return the future of the response, completed with null if all tries failed as in {@link #askChatGPT}
+     */
+    public CompletableFuture<ChatResponse> askChatGPTAsync(List<ChatMessage> chatMessages) {
+        return askChatGPTAsync(chatMessages, 1, 0);
+    }
+
+    /**
+     * Ask for n choices of the response without blocking.
+     * @param sample index of the request among the requests of the same prompt, cached responses are kept per sample
+     */
+    public CompletableFuture<ChatResponse> askChatGPTAsync(List<ChatMessage> chatMessages, int n, int sample) {
+        Exchange exchange = new Exchange(chatMessages, n, MAX_TRY);
+        try {
+            ResponseCache responseCache = config.getResponseCache();
+            if (responseCache != null) {
+                String cacheKey = getCacheKey(chatMessages, n, sample);
+                ChatResponse cached = responseCache.get(cacheKey);
+                if (cached != null) {
+                    exchange.future.complete(cached);
+                    return exchange.future;
+                }
+                exchange.future.thenAccept(chatResponse -> responseCache.put(cacheKey, chatResponse));
+            }
+            sendAsync(exchange, null);
+        } catch (RuntimeException e) {
+            exchange.future.completeExceptionally(e);
+        }
+        return exchange.future;
+    }
+
+    /**
+     * Start one call of the exchange, a try or a hedge.
+     * @param excludeUrl endpoint to avoid, the endpoint that failed or that the hedge races against
+     */
+    private void sendAsync(Exchange exchange, String excludeUrl) {
+        if (exchange.future.isDone()) {
+            return;
+        }
+        exchange.active.incrementAndGet();
+        // the key counts as loaded while the request waits for the rate limiter and the in-flight limit
+        String apiKey = config.getApiKeyPool().acquire();
+        long delay;
+        try {
+            delay = config.getRateLimiter().reserve(apiKey, estimateTokens(exchange.chatMessages, exchange.n));
+        } catch (RuntimeException e) {
+            config.getApiKeyPool().release(apiKey);
+            exchange.active.decrementAndGet();
+            exchange.future.completeExceptionally(e);
+            return;
+        }
+        if (delay <= 0) {
+            dispatchAsync(exchange, apiKey, excludeUrl);
+            return;
+        }
+        SCHEDULER.schedule(() -> {
+            try {
+                dispatchAsync(exchange, apiKey, excludeUrl);
+            } catch (RuntimeException e) {
+                exchange.future.completeExceptionally(e);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatchAsync(Exchange exchange, String apiKey, String excludeUrl) {
+        ApiKeyPool keyPool = config.getApiKeyPool();
+        EndpointRouter router = config.getEndpointRouter();
+        if (exchange.future.isDone()) {
+            keyPool.release(apiKey);
+            exchange.active.decrementAndGet();
+            return;
+        }
+        String url = router.choose(excludeUrl);
+        Request request;
+        try {
+            request = buildRequest(exchange.chatMessages, exchange.n, url, apiKey);
+        } catch (RuntimeException e) {
+            router.onDone(url);
+            keyPool.release(apiKey);
+            exchange.active.decrementAndGet();
+            exchange.future.completeExceptionally(e);
+            return;
+        }
+        String host = request.url().host();
+        InFlightLimiter limiter = config.getInFlightLimiter();
+        limiter.submit(host, apiKey, () -> {
+            if (exchange.future.isDone()) {
+                // the other call of a hedged exchange won while this one was queued
+                limiter.release(host, apiKey);
+                router.onDone(url);
+                keyPool.release(apiKey);
+                exchange.active.decrementAndGet();
+                return;
+            }
+            long startNanos = System.nanoTime();
+            Call call = config.getClient().newCall(request);
+            exchange.calls.add(call);
+            scheduleHedge(exchange, url);
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    limiter.release(host, apiKey);
+                    if (exchange.future.isDone()) {
+                        // canceled after the other call won
+                        router.onDone(url);
+                        keyPool.release(apiKey);
+                        exchange.active.decrementAndGet();
+                        return;
+                    }
+                    router.onFailure(url);
+                    keyPool.release(apiKey, null, 0);
+                    retryAsync(exchange, url, e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    boolean released = false;
+                    // a streamed body is still in flight until it is read
+                    try (Response r = response) {
+                        config.getRateLimiter().onResponse(apiKey, r);
+                        if (r.code() == 429) {
+                            long delay = config.getRateLimiter().onRateLimited(apiKey, r);
+                            config.getLogger().info("Rate limited, waiting " + delay + " ms...");
+                            // quarantine the key before the retry takes a key again
+                            router.onDone(url);
+                            keyPool.release(apiKey, r, delay);
+                            released = true;
+                            sendAsync(exchange, null);
+                            exchange.active.decrementAndGet();
+                            return;
+                        }
+                        if (!r.isSuccessful()) throw new IOException("Unexpected code " + r);
+                        if (r.body() == null) throw new IOException("Response body is null.");
+                        ChatResponse chatResponse = readResponse(call, r, startNanos, exchange.chatMessages, isStreaming(exchange.n));
+                        router.onSuccess(url, (System.nanoTime() - startNanos) / 1_000_000);
+                        keyPool.recordUsage(apiKey, chatResponse.getUsage());
+                        keyPool.release(apiKey, r, 0);
+                        released = true;
+                        exchange.active.decrementAndGet();
+                        if (config.sleepTime > 0) {
+                            SCHEDULER.schedule(() -> exchange.future.complete(chatResponse), config.sleepTime, TimeUnit.MILLISECONDS);
+                        } else {
+                            exchange.future.complete(chatResponse);
+                        }
+                    } catch (IOException e) {
+                        if (response.code() >= 500 || response.isSuccessful()) {
+                            router.onFailure(url);
+                        } else {
+                            router.onDone(url);
+                        }
+                        keyPool.release(apiKey, response, 0);
+                        released = true;
+                        retryAsync(exchange, url, e);
+                    } catch (RuntimeException e) {
+                        router.onDone(url);
+                        exchange.active.decrementAndGet();
+                        exchange.future.completeExceptionally(e);
+                    } finally {
+                        limiter.release(host, apiKey);
+                        if (!released) {
+                            keyPool.release(apiKey, response, 0);
+                        }
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Race a second call against a slow one on another endpoint, once per exchange.
+     */
+    private void scheduleHedge(Exchange exchange, String url) {
+        EndpointRouter router = config.getEndpointRouter();
+        if (!config.isEnableHedging() || router.size() < 2 || exchange.hedged) {
+            return;
+        }
+        long delay = config.getHedgeAfterMillis() > 0 ? config.getHedgeAfterMillis() : router.getPercentile(url, 0.95);
+        if (delay <= 0) {
+            // the endpoint has too few samples to know what is slow
+            return;
+        }
+        exchange.hedged = true;
+        SCHEDULER.schedule(() -> {
+            if (exchange.future.isDone()) {
+                return;
+            }
+            config.getLogger().debug("No response from " + url + " after " + delay + " ms, hedging on another endpoint");
+            sendAsync(exchange, url);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Retry a failed call on another endpoint, unless the other call of a hedged exchange is still in flight.
+     */
+    private void retryAsync(Exchange exchange, String failedUrl, IOException e) {
+        config.getLogger().error("In AskGPT.askChatGPTAsync: " + e);
+        if (exchange.active.decrementAndGet() > 0) {
+            return;
+        }
+        if (exchange.tries.decrementAndGet() <= 0) {
+            config.getLogger().debug("AskGPT: Failed to get response\n");
+            exchange.future.complete(null);
+            return;
+        }
+        sendAsync(exchange, failedUrl);
+    }
+
+    private ChatResponse readResponse(Call call, Response response, long startNanos, List<ChatMessage> chatMessages,
+                                      boolean stream) throws IOException {
+        if (!stream) {
+            return GSON.fromJson(response.body().string(), ChatResponse.class);
+        }
+        StreamReader reader = new StreamReader(startNanos, config.isEnableStreamCutoff());
+        ChatResponse chatResponse = reader.read(call, response.body().source());
+        if (chatResponse.getUsage() == null) {
+            chatResponse.setUsage(countUsage(chatMessages, chatResponse.getContent()));
+        }
+        config.getLogger().debug("Streamed response: time to first token " + chatResponse.getTimeToFirstTokenMillis()
+                + " ms, time to code " + chatResponse.getTimeToCodeMillis() + " ms, finish reason " + reader.finishReason);
+        return chatResponse;
+    }
+
+    /**
+     * Count the tokens of a streamed response, the stream is cut before the server sends the usage.
+     */
+    private ChatUsage countUsage(List<ChatMessage> chatMessages, String content) {
+        int promptTokens = 0;
+        for (ChatMessage chatMessage : chatMessages) {
+            if (chatMessage.getContent() != null) {
+                promptTokens += TokenCounter.countToken(config.getModel(), chatMessage.getContent());
+            }
+        }
+        ChatUsage usage = new ChatUsage();
+        usage.setPromptTokens(promptTokens);
+        usage.setCompletionTokens(TokenCounter.countToken(config.getModel(), content));
+        usage.setTotalTokens(usage.getPromptTokens() + usage.getCompletionTokens());
+        return usage;
+    }
+
+    /**
+     * Only single-choice responses are streamed, the stream reader follows one choice.
+     */
+    private boolean isStreaming(int n) {
+        return config.isEnableStreaming() && n <= 1;
+    }
+
+    private String getCacheKey(List<ChatMessage> chatMessages, int n, int sample) {
+        String modelName = config.getModel().getDefaultConfig().getModelName();
+        if (n <= 1 && sample == 0) {
+            return ResponseCache.key(modelName, config.getTemperature(), chatMessages);
+        }
+        return ResponseCache.key(modelName + "#n=" + n + "#sample=" + sample, config.getTemperature(), chatMessages);
+    }
+
+    /**
+     * Estimate the tokens the request counts against the tokens per minute limit, about 4 chars per token.
+     */
+    private int estimateTokens(List<ChatMessage> chatMessages, int n) {
+        long chars = 0;
+        for (ChatMessage chatMessage : chatMessages) {
+            if (chatMessage.getContent() != null) {
+                chars += chatMessage.getContent().length();
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, chars / 4 + (long) config.getMaxResponseTokens() * Math.max(1, n));
+    }
+
+    private Request buildRequest(List<ChatMessage> chatMessages, int n, String url, String apiKey) {
+        Map<String, Object> payload = new HashMap<>();
+
+//        if (Objects.equals(config.getModel(), "code-llama") || Objects.equals(config.getModel(), "code-llama-13B")) {
+//            payload.put("max_tokens", 8092);
+//        }
+
+        ModelConfig modelConfig = config.getModel().getDefaultConfig();
+
+        payload.put("messages", chatMessages);
+        payload.put("model", modelConfig.getModelName());
+        payload.put("temperature", config.getTemperature());
+        payload.put("frequency_penalty", config.getFrequencyPenalty());
+        payload.put("presence_penalty", config.getPresencePenalty());
+        payload.put("max_tokens", config.getMaxResponseTokens());
+        if (n > 1) {
+            payload.put("n", n);
+        }
+        if (isStreaming(n)) {
+            payload.put("stream", true);
+        }
+        String jsonPayload = GSON.toJson(payload);
+
+        RequestBody body = RequestBody.create(MEDIA_TYPE, jsonPayload);
+        return new Request.Builder().url(url).post(body).addHeader("Content-Type", "application/json").addHeader("Authorization", "Bearer " + apiKey).build();
+    }
+
+    /**
+     * Reads the server-sent events of a streamed chat completion. With the cut-off the call is canceled as soon as
+     * the first fenced code block with a test class is complete, the prose after it is not generated.
+     */
+    private static class StreamReader {
+        private static final Pattern CODE_BLOCK = Pattern.compile("```[^\\n]*\\n([\\s\\S]*?)```");
+
+        final long startNanos;
+        final boolean cutoff;
+        final StringBuilder content = new StringBuilder();
+        String role = ChatMessage.Role.ASSISTANT.getValue();
+        String finishReason;
+        Long timeToFirstTokenMillis;
+        Long timeToCodeMillis;
+
+        StreamReader(long startNanos, boolean cutoff) {
+            this.startNanos = startNanos;
+            this.cutoff = cutoff;
+        }
+
+        ChatResponse read(Call call, BufferedSource source) throws IOException {
+            ChatResponse chatResponse = new ChatResponse();
+            String line;
+            while ((line = source.readUtf8Line()) != null) {
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                String data = line.substring("data:".length()).trim();
+                if (data.equals("[DONE]")) {
+                    break;
+                }
+                StreamChunk chunk = GSON.fromJson(data, StreamChunk.class);
+                if (chunk == null) {
+                    continue;
+                }
+                if (chatResponse.getId() == null) {
+                    chatResponse.setId(chunk.id);
+                    chatResponse.setModel(chunk.model);
+                    chatResponse.setCreated(chunk.created);
+                    chatResponse.setObject(chunk.object);
+                }
+                if (chunk.usage != null) {
+                    chatResponse.setUsage(chunk.usage);
+                }
+                if (chunk.choices == null || chunk.choices.isEmpty()) {
+                    continue;
+                }
+                StreamChoice choice = chunk.choices.get(0);
+                if (choice.finishReason != null) {
+                    finishReason = choice.finishReason;
+                }
+                if (choice.delta == null) {
+                    continue;
+                }
+                if (choice.delta.getRole() != null) {
+                    role = choice.delta.getRole();
+                }
+                String delta = choice.delta.getContent();
+                if (delta == null || delta.isEmpty()) {
+                    continue;
+                }
+                if (timeToFirstTokenMillis == null) {
+                    timeToFirstTokenMillis = elapsedMillis();
+                }
+                content.append(delta);
+                if (delta.contains("`") && findCodeBlockEnd() >= 0) {
+                    timeToCodeMillis = elapsedMillis();
+                    if (cutoff) {
+                        content.setLength(findCodeBlockEnd());
+                        finishReason = "code_block";
+                        call.cancel();
+                        break;
+                    }
+                }
+            }
+            ChatChoice chatChoice = new ChatChoice();
+            chatChoice.setIndex(0);
+            chatChoice.setMessage(new ChatMessage(role, content.toString()));
+            chatChoice.setFinishReason(finishReason);
+            chatResponse.setChoices(Collections.singletonList(chatChoice));
+            chatResponse.setTimeToFirstTokenMillis(timeToFirstTokenMillis);
+            chatResponse.setTimeToCodeMillis(timeToCodeMillis);
+            return chatResponse;
+        }
+
+        /**
+         * Find the end of the first complete code block with a test class.
+         * @return -1 if there is none yet, or the response uses the <INFO> format that puts the code in a later block
+         */
+        private int findCodeBlockEnd() {
+            if (timeToCodeMillis != null && !cutoff) {
+                return -1;
+            }
+            if (content.indexOf("<INFO>") >= 0) {
+                return -1;
+            }
+            Matcher matcher = CODE_BLOCK.matcher(content);
+            while (matcher.find()) {
+                String code = matcher.group(1);
+                if (code.contains("@Test") && code.contains("class ")) {
+                    return matcher.end();
+                }
+            }
+            return -1;
+        }
+
+        private long elapsedMillis() {
+            return (System.nanoTime() - startNanos) / 1_000_000;
+        }
+    }
+
+    /**
+     * One logical request, the calls of its tries and of its hedge share the future.
+     */
+    private static class Exchange {
+        final List<ChatMessage> chatMessages;
+        final int n;
+        final CompletableFuture<ChatResponse> future = new CompletableFuture<>();
+        final AtomicInteger tries;
+        /** calls started and not ended yet */
+        final AtomicInteger active = new AtomicInteger();
+        final Queue<Call> calls = new ConcurrentLinkedQueue<>();
+        volatile boolean hedged;
+
+        Exchange(List<ChatMessage> chatMessages, int n, int maxTry) {
+            this.chatMessages = chatMessages;
+            this.n = n;
+            this.tries = new AtomicInteger(maxTry);
+            // the first response wins, the calls still in flight are canceled
+            future.whenComplete((response, e) -> calls.forEach(Call::cancel));
+        }
+    }
+
+    private static class StreamChunk {
+        String id;
+        String model;
+        Long created;
+        String object;
+        List<StreamChoice> choices;
+        ChatUsage usage;
+    }
+
+    private static class StreamChoice {
+        Integer index;
+        ChatMessage delta;
+        @SerializedName("finish_reason")
+        String finishReason;
+    }
+}
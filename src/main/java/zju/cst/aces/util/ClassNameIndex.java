@@ -0,0 +1,122 @@
+package zju.cst.aces.util;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Immutable simple class name -> full class name index of the project (the content of classNameMapping.json).
+ * Built once after parsing or loaded once from the json file, safe to share between threads.
+ */
+public class ClassNameIndex {
+    public static final ClassNameIndex EMPTY = new ClassNameIndex(Collections.emptyMap());
+
+    private final Map<String, List<String>> bySimpleName;
+    private final Map<String, List<String>> byPackage;
+    private final NavigableSet<String> simpleNames;
+
+    private ClassNameIndex(Map<String, ? extends Collection<String>> classNameMap) {
+        Map<String, List<String>> bySimpleName = new HashMap<>();
+        Map<String, List<String>> byPackage = new HashMap<>();
+        for (Map.Entry<String, ? extends Collection<String>> entry : classNameMap.entrySet()) {
+            List<String> fullClassNames = new ArrayList<>(new TreeSet<>(entry.getValue()));
+            bySimpleName.put(entry.getKey(), Collections.unmodifiableList(fullClassNames));
+            for (String fullClassName : fullClassNames) {
+                byPackage.computeIfAbsent(getPackageName(fullClassName), k -> new ArrayList<>()).add(fullClassName);
+            }
+        }
+        byPackage.replaceAll((k, v) -> {
+            Collections.sort(v);
+            return Collections.unmodifiableList(v);
+        });
+        this.bySimpleName = Collections.unmodifiableMap(bySimpleName);
+        this.byPackage = Collections.unmodifiableMap(byPackage);
+        this.simpleNames = Collections.unmodifiableNavigableSet(new TreeSet<>(bySimpleName.keySet()));
+    }
+
+    public static ClassNameIndex of(Map<String, ? extends Collection<String>> classNameMap) {
+        return new ClassNameIndex(classNameMap);
+    }
+
+    /**
+     * Load the index from classNameMapping.json.
+     * @return null if the file does not exist
+     */
+    public static ClassNameIndex load(Path classNameMapPath, Gson gson) throws IOException {
+        if (!Files.exists(classNameMapPath)) {
+            return null;
+        }
+        Type type = new TypeToken<Map<String, List<String>>>() {}.getType();
+        Map<String, List<String>> classNameMap = gson.fromJson(
+                new String(Files.readAllBytes(classNameMapPath), StandardCharsets.UTF_8), type);
+        return new ClassNameIndex(classNameMap == null ? Collections.emptyMap() : classNameMap);
+    }
+
+    /**
+     * Get all full class names with the simple name, sorted.
+     */
+    public List<String> get(String simpleName) {
+        return bySimpleName.getOrDefault(simpleName, Collections.emptyList());
+    }
+
+    public boolean contains(String simpleName) {
+        return bySimpleName.containsKey(simpleName);
+    }
+
+    /**
+     * Resolve the simple name, prefer the class in the package if the name is ambiguous.
+     * @return null if the name is not found or still ambiguous
+     */
+    public String resolve(String simpleName, String packageName) {
+        List<String> fullClassNames = get(simpleName);
+        if (fullClassNames.size() == 1) {
+            return fullClassNames.get(0);
+        }
+        for (String fullClassName : fullClassNames) {
+            if (getPackageName(fullClassName).equals(packageName)) {
+                return fullClassName;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get full class names of all classes whose simple name starts with the prefix.
+     */
+    public List<String> findByPrefix(String prefix) {
+        List<String> result = new ArrayList<>();
+        for (String simpleName : simpleNames.tailSet(prefix, true)) {
+            if (!simpleName.startsWith(prefix)) {
+                break;
+            }
+            result.addAll(bySimpleName.get(simpleName));
+        }
+        return result;
+    }
+
+    /**
+     * Get full class names of all classes declared in the package, sorted.
+     */
+    public List<String> getClassesInPackage(String packageName) {
+        return byPackage.getOrDefault(packageName, Collections.emptyList());
+    }
+
+    public Set<String> getSimpleNames() {
+        return simpleNames;
+    }
+
+    public int size() {
+        return bySimpleName.size();
+    }
+
+    private static String getPackageName(String fullClassName) {
+        int index = fullClassName.lastIndexOf('.');
+        return index < 0 ? "" : fullClassName.substring(0, index);
+    }
+}
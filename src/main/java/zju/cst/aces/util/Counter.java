@@ -7,6 +7,8 @@ import zju.cst.aces.api.config.Config;
 import zju.cst.aces.dto.ClassInfo;
 import zju.cst.aces.dto.MethodInfo;
 import zju.cst.aces.parser.ClassParser;
+import zju.cst.aces.parser.JobManifest;
+import zju.cst.aces.parser.ParseInfoStore;
 import zju.cst.aces.parser.ProjectParser;
 import zju.cst.aces.runner.MethodRunner;
 
@@ -158,8 +160,48 @@ public class Counter {
     }
 
     public static int countMethod(Path tmpOutputPath) throws IOException {
-        Path parseOutputPath = tmpOutputPath.resolve("class-info");
-        Map<String, List<String>> testMap = new HashMap<>();
+        JobManifest jobManifest = buildJobManifest(tmpOutputPath.resolve("class-info"));
+        return exportTaskList(tmpOutputPath, jobManifest.toTaskList());
+    }
+
+    /**
+     * Count methods to test from the job manifest, the parse records are only read if the manifest is missing.
+     */
+    public static int countMethod(Config config) throws IOException {
+        JobManifest jobManifest = config.getJobManifest();
+        return exportTaskList(config.getTmpOutput(), jobManifest.toTaskList());
+    }
+
+    /**
+     * Build the job manifest from the parse output, read from the single-file parse store if it is enabled.
+     */
+    public static JobManifest buildJobManifest(Config config) throws IOException {
+        ParseInfoStore parseStore = config.getParseStore();
+        if (parseStore == null) {
+            return buildJobManifest(config.getParseOutput());
+        }
+        JobManifest jobManifest = new JobManifest();
+        for (String fullClassName : parseStore.getClassNames()) {
+            ClassInfo classInfo = parseStore.getClassInfo(fullClassName);
+            if (!filter(classInfo)) {
+                continue;
+            }
+            JobManifest.ClassJob classJob = new JobManifest.ClassJob(classInfo.fullClassName);
+            for (String mSig : classInfo.methodSigs.keySet()) {
+                MethodInfo methodInfo = parseStore.getMethodInfo(fullClassName, mSig);
+                if (!filter(methodInfo)) {
+                    continue;
+                }
+                methodInfo.bindSource(config.getSourceSnapshot());
+                classJob.methods.add(JobManifest.MethodJob.of(classInfo, mSig, methodInfo));
+            }
+            jobManifest.put(classJob);
+        }
+        return jobManifest;
+    }
+
+    public static JobManifest buildJobManifest(Path parseOutputPath) throws IOException {
+        JobManifest jobManifest = new JobManifest();
         // get all json files names "class.json"
         List<String> classJsonFiles = Files.walk(parseOutputPath)
                 .filter(Files::isRegularFile)
@@ -174,23 +216,28 @@ public class Counter {
             if (!filter(classInfo)) {
                 continue;
             }
-            List<String> methodList = new ArrayList<>();
+            JobManifest.ClassJob classJob = new JobManifest.ClassJob(classInfo.fullClassName);
             for (String mSig : classInfo.methodSigs.keySet()) {
                 MethodInfo methodInfo = getMethodInfo(parseOutputPath, classInfo, mSig);
                 if (!filter(methodInfo)) {
                     continue;
                 }
-                methodList.add(mSig);
+                classJob.methods.add(JobManifest.MethodJob.of(classInfo, mSig, methodInfo));
             }
-            testMap.put(classInfo.fullClassName, methodList);
+            jobManifest.put(classJob);
         }
+        return jobManifest;
+    }
 
+    /**
+     * Write tasklist.json from the current job manifest, an earlier list is replaced so changed and deleted files
+     * of an incremental parse are reflected.
+     */
+    private static int exportTaskList(Path tmpOutputPath, Map<String, List<String>> testMap) throws IOException {
         Path tasklistPath = tmpOutputPath.resolve("tasklist.json");
-        if(!Files.exists(tasklistPath)){
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            String json = gson.toJson(testMap);
-            Files.write(tasklistPath, json.getBytes(StandardCharsets.UTF_8));
-        }
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        String json = gson.toJson(testMap);
+        Files.write(tasklistPath, json.getBytes(StandardCharsets.UTF_8));
 
         return testMap.values().stream().mapToInt(List::size).sum();
     }
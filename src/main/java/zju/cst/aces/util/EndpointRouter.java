@@ -0,0 +1,211 @@
+package zju.cst.aces.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Routes the requests of a model over its endpoints by the latency and the error rate observed so far.
+ * An endpoint that fails several times in a row is taken out for a while, and is only used again when
+ * every endpoint is out.
+ */
+public class EndpointRouter {
+    private static final int WINDOW = 128;
+    private static final int MIN_SAMPLES = 5;
+    private static final double ERROR_DECAY = 0.1;
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    private static final long DOWN_MILLIS = 30_000;
+    private static final long MAX_DOWN_MILLIS = 5 * 60_000;
+    /** expected latency of an endpoint still warming up when no endpoint is measured yet */
+    private static final long WARM_UP_MILLIS = 10_000;
+
+    private final List<EndpointState> endpoints = new ArrayList<>();
+
+    public EndpointRouter(List<String> urls) {
+        if (urls == null || urls.isEmpty()) {
+            throw new RuntimeException("In EndpointRouter: no endpoint url configured");
+        }
+        for (String url : urls) {
+            endpoints.add(new EndpointState(url));
+        }
+    }
+
+    public int size() {
+        return endpoints.size();
+    }
+
+    /**
+     * Choose the endpoint of the next request. Endpoints with too few samples are tried first so every endpoint
+     * gets measured, then the one with the lowest expected latency weighted by its error rate. An endpoint still
+     * warming up is expected to be as fast as the median of the measured endpoints.
+     * @param exclude url to avoid, such as the endpoint a hedged request is already waiting for, may be null
+     */
+    public synchronized String choose(String exclude) {
+        long now = System.currentTimeMillis();
+        double warmUpLatency = getMedianLatency(now);
+        EndpointState best = null;
+        double bestScore = 0;
+        EndpointState firstBack = null;
+        for (EndpointState state : endpoints) {
+            if (endpoints.size() > 1 && state.url.equals(exclude)) {
+                continue;
+            }
+            if (state.downUntil > now) {
+                if (firstBack == null || state.downUntil < firstBack.downUntil) {
+                    firstBack = state;
+                }
+                continue;
+            }
+            double score = state.score(warmUpLatency);
+            if (best == null || score < bestScore) {
+                best = state;
+                bestScore = score;
+            }
+        }
+        if (best == null) {
+            // every endpoint is down, take the one that is back first
+            best = firstBack;
+        }
+        best.inFlight++;
+        return best.url;
+    }
+
+    public synchronized void onSuccess(String url, long latencyMillis) {
+        EndpointState state = getState(url);
+        if (state == null) {
+            return;
+        }
+        state.inFlight = Math.max(0, state.inFlight - 1);
+        state.latencies[state.count % WINDOW] = latencyMillis;
+        state.count++;
+        state.successes++;
+        state.errorRate *= 1 - ERROR_DECAY;
+        state.consecutiveFailures = 0;
+        state.downCount = 0;
+    }
+
+    /**
+     * Count a failure of the endpoint itself, a connection error or a 5xx response.
+     */
+    public synchronized void onFailure(String url) {
+        EndpointState state = getState(url);
+        if (state == null) {
+            return;
+        }
+        state.inFlight = Math.max(0, state.inFlight - 1);
+        state.failures++;
+        state.errorRate = state.errorRate * (1 - ERROR_DECAY) + ERROR_DECAY;
+        if (++state.consecutiveFailures >= MAX_CONSECUTIVE_FAILURES) {
+            long millis = Math.min(MAX_DOWN_MILLIS, DOWN_MILLIS << Math.min(state.downCount, 16));
+            state.downUntil = System.currentTimeMillis() + millis;
+            state.downCount++;
+            state.consecutiveFailures = 0;
+        }
+    }
+
+    /**
+     * End a request that says nothing about the endpoint, such as a 429 of the key or a canceled hedge.
+     */
+    public synchronized void onDone(String url) {
+        EndpointState state = getState(url);
+        if (state != null) {
+            state.inFlight = Math.max(0, state.inFlight - 1);
+        }
+    }
+
+    /**
+     * @return -1 if the endpoint has too few samples
+     */
+    public synchronized long getPercentile(String url, double percentile) {
+        EndpointState state = getState(url);
+        return state == null ? -1 : state.percentile(percentile);
+    }
+
+    public synchronized String getStats() {
+        long now = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        for (EndpointState state : endpoints) {
+            sb.append(String.format("\n  %s: success: %d, failed: %d, p50: %d ms, p95: %d ms, error rate: %.2f%s",
+                    state.url, state.successes, state.failures, state.percentile(0.5), state.percentile(0.95),
+                    state.errorRate, state.downUntil > now ? ", down for " + (state.downUntil - now) + " ms" : ""));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Median of the expected latencies of the endpoints that are up and measured.
+     * @return WARM_UP_MILLIS if no endpoint is measured yet
+     */
+    private double getMedianLatency(long now) {
+        List<Double> latencies = new ArrayList<>();
+        for (EndpointState state : endpoints) {
+            if (state.downUntil <= now && state.count >= MIN_SAMPLES) {
+                latencies.add(state.latency());
+            }
+        }
+        if (latencies.isEmpty()) {
+            return WARM_UP_MILLIS;
+        }
+        Collections.sort(latencies);
+        return latencies.get(latencies.size() / 2);
+    }
+
+    private EndpointState getState(String url) {
+        for (EndpointState state : endpoints) {
+            if (state.url.equals(url)) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    private static class EndpointState {
+        final String url;
+        final long[] latencies = new long[WINDOW];
+        int count;
+        int inFlight;
+        long successes;
+        long failures;
+        double errorRate;
+        int consecutiveFailures;
+        int downCount;
+        long downUntil;
+
+        EndpointState(String url) {
+            this.url = url;
+        }
+
+        /**
+         * @param warmUpLatency latency expected of the endpoint while it has too few samples
+         */
+        double score(double warmUpLatency) {
+            if (count + inFlight < MIN_SAMPLES) {
+                return count + inFlight;
+            }
+            double latency = count < MIN_SAMPLES ? warmUpLatency : latency();
+            double expected = latency * (1 + inFlight / 16.0);
+            // a failed request costs about a retry on another endpoint
+            return MIN_SAMPLES + expected / Math.max(0.05, 1 - errorRate);
+        }
+
+        /**
+         * Expected latency of a request, the tail counts half.
+         */
+        double latency() {
+            long p50 = Math.max(1, percentile(0.5));
+            long p95 = Math.max(p50, percentile(0.95));
+            return (p50 + p95) / 2.0;
+        }
+
+        long percentile(double percentile) {
+            int size = Math.min(count, WINDOW);
+            if (size < MIN_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (int) Math.ceil(percentile * size) - 1)];
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package zju.cst.aces.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Non-blocking limit of the requests in flight per host and per api key.
+ * A submitted task runs right away if both limits allow it, otherwise it is queued and run by the release
+ * of an earlier request, so no thread waits for a permit.
+ */
+public class InFlightLimiter {
+    private final int maxPerHost;
+    private final int maxPerKey;
+    private final Map<String, Integer> hostCounts = new HashMap<>();
+    private final Map<String, Integer> keyCounts = new HashMap<>();
+    private final Deque<Pending> pending = new ArrayDeque<>();
+
+    /**
+     * @param maxPerHost unlimited if <= 0
+     * @param maxPerKey unlimited if <= 0
+     */
+    public InFlightLimiter(int maxPerHost, int maxPerKey) {
+        this.maxPerHost = maxPerHost;
+        this.maxPerKey = maxPerKey;
+    }
+
+    /**
+     * Run the task once a permit of the host and the key is available, the task must release it when the request ends.
+     */
+    public void submit(String host, String key, Runnable task) {
+        synchronized (this) {
+            if (!tryAcquire(host, key)) {
+                pending.addLast(new Pending(host, key, task));
+                return;
+            }
+        }
+        task.run();
+    }
+
+    public void release(String host, String key) {
+        List<Runnable> ready = new ArrayList<>();
+        synchronized (this) {
+            decrement(hostCounts, host);
+            decrement(keyCounts, key);
+            // requests of other hosts or keys may be able to run even if the head of the queue still cannot
+            Iterator<Pending> iterator = pending.iterator();
+            while (iterator.hasNext()) {
+                Pending next = iterator.next();
+                if (tryAcquire(next.host, next.key)) {
+                    iterator.remove();
+                    ready.add(next.task);
+                }
+            }
+        }
+        ready.forEach(Runnable::run);
+    }
+
+    public synchronized int getInFlight() {
+        return hostCounts.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    public synchronized int getQueued() {
+        return pending.size();
+    }
+
+    private boolean tryAcquire(String host, String key) {
+        if (maxPerHost > 0 && hostCounts.getOrDefault(host, 0) >= maxPerHost) {
+            return false;
+        }
+        if (maxPerKey > 0 && keyCounts.getOrDefault(key, 0) >= maxPerKey) {
+            return false;
+        }
+        hostCounts.merge(host, 1, Integer::sum);
+        keyCounts.merge(key, 1, Integer::sum);
+        return true;
+    }
+
+    private static void decrement(Map<String, Integer> counts, String name) {
+        counts.computeIfPresent(name, (k, v) -> v <= 1 ? null : v - 1);
+    }
+
+    private static class Pending {
+        final String host;
+        final String key;
+        final Runnable task;
+
+        Pending(String host, String key, Runnable task) {
+            this.host = host;
+            this.key = key;
+            this.task = task;
+        }
+    }
+}
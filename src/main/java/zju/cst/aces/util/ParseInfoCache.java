@@ -0,0 +1,153 @@
+package zju.cst.aces.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import zju.cst.aces.dto.ClassInfo;
+import zju.cst.aces.dto.MethodInfo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe, size-bounded LRU cache in front of the parse output (class.json / [id].json).
+ * Records are shared between callers and must be treated as read-only.
+ */
+public class ParseInfoCache {
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+    private final int maxEntries;
+    private final Map<String, Object> cache;
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+    private final AtomicLong evictionCount = new AtomicLong(0);
+
+    /**
+     * @param maxEntries max number of records kept in memory, caching is disabled if <= 0
+     */
+    public ParseInfoCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.cache = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                if (size() > ParseInfoCache.this.maxEntries) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public ClassInfo getClassInfo(Path classInfoPath) throws IOException {
+        return get(classInfoPath, ClassInfo.class);
+    }
+
+    public MethodInfo getMethodInfo(Path methodInfoPath) throws IOException {
+        return get(methodInfoPath, MethodInfo.class);
+    }
+
+    /**
+     * Get the record stored in the json file, decode it on a miss.
+     * @return null if the file does not exist
+     */
+    public <T> T get(Path path, Class<T> type) throws IOException {
+        return get(getKey(path), type, () -> {
+            if (!path.toFile().exists()) {
+                return null;
+            }
+            return GSON.fromJson(new String(Files.readAllBytes(path), StandardCharsets.UTF_8), type);
+        });
+    }
+
+    /**
+     * Get the record cached under the key, load it with the loader on a miss.
+     * @return null if the loader returns null
+     */
+    public <T> T get(String key, Class<T> type, Loader<T> loader) throws IOException {
+        synchronized (cache) {
+            Object value = cache.get(key);
+            if (type.isInstance(value)) {
+                hitCount.incrementAndGet();
+                return type.cast(value);
+            }
+        }
+        missCount.incrementAndGet();
+        T value = loader.load();
+        put(key, value);
+        return value;
+    }
+
+    public void put(Path path, Object value) {
+        put(getKey(path), value);
+    }
+
+    public void put(String key, Object value) {
+        if (value == null || maxEntries <= 0) {
+            return;
+        }
+        synchronized (cache) {
+            cache.put(key, value);
+        }
+    }
+
+    public void invalidate(Path path) {
+        invalidate(getKey(path));
+    }
+
+    public void invalidate(String key) {
+        synchronized (cache) {
+            cache.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public double getHitRate() {
+        long total = hitCount.get() + missCount.get();
+        return total == 0 ? 0 : (double) hitCount.get() / total;
+    }
+
+    public String getStats() {
+        return String.format("size: %d/%d, hits: %d, misses: %d, evictions: %d, hit rate: %.2f%%",
+                size(), maxEntries, getHitCount(), getMissCount(), getEvictionCount(), getHitRate() * 100);
+    }
+
+    private static String getKey(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    public interface Loader<T> {
+        T load() throws IOException;
+    }
+}
@@ -0,0 +1,228 @@
+package zju.cst.aces.util;
+
+import okhttp3.Response;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rate limiter of the LLM requests shared by all runners, with a token bucket per api key for requests per minute
+ * and tokens per minute. The buckets are corrected by the x-ratelimit-* headers of the responses, a 429 blocks
+ * the key for the Retry-After time or a jittered exponential backoff so all callers of the key wait together.
+ */
+public class RateLimiter {
+    private static final long MINUTE_MILLIS = 60_000;
+    private static final long BASE_BACKOFF_MILLIS = 1_000;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+    private static final Pattern DURATION = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+    private final int requestsPerMinute;
+    private final int tokensPerMinute;
+    private final Map<String, KeyState> states = new ConcurrentHashMap<>();
+
+    /**
+     * @param requestsPerMinute unlimited if <= 0
+     * @param tokensPerMinute unlimited if <= 0
+     */
+    public RateLimiter(int requestsPerMinute, int tokensPerMinute) {
+        this.requestsPerMinute = requestsPerMinute;
+        this.tokensPerMinute = tokensPerMinute;
+    }
+
+    /**
+     * Reserve a request of the estimated tokens with the key.
+     * @return milliseconds to wait before sending the request, 0 to send it now
+     */
+    public long reserve(String key, int tokens) {
+        return getState(key).reserve(System.currentTimeMillis(), tokens);
+    }
+
+    /**
+     * Reserve a request and wait until it may be sent.
+     */
+    public void acquire(String key, int tokens) throws InterruptedException {
+        long delay = reserve(key, tokens);
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * Correct the buckets of the key by the x-ratelimit-remaining-* and x-ratelimit-reset-* headers of a response.
+     */
+    public void onResponse(String key, Response response) {
+        KeyState state = getState(key);
+        long now = System.currentTimeMillis();
+        state.update(now, parseLong(response.header("x-ratelimit-remaining-requests")),
+                parseDuration(response.header("x-ratelimit-reset-requests")),
+                parseLong(response.header("x-ratelimit-remaining-tokens")),
+                parseDuration(response.header("x-ratelimit-reset-tokens")));
+        if (response.isSuccessful()) {
+            state.resetBackoff();
+        }
+    }
+
+    /**
+     * Block the key after a 429 response, for the Retry-After time if the server sent one.
+     * @return milliseconds to wait before retrying
+     */
+    public long onRateLimited(String key, Response response) {
+        KeyState state = getState(key);
+        long now = System.currentTimeMillis();
+        long delay = parseRetryAfter(response, now);
+        if (delay < 0) {
+            delay = Math.max(parseDuration(response.header("x-ratelimit-reset-requests")),
+                    parseDuration(response.header("x-ratelimit-reset-tokens")));
+        }
+        return state.block(now, delay);
+    }
+
+    public long getBlockedMillis(String key) {
+        KeyState state = states.get(key);
+        return state == null ? 0 : Math.max(0, state.blockedUntil - System.currentTimeMillis());
+    }
+
+    private KeyState getState(String key) {
+        return states.computeIfAbsent(key == null ? "" : key, k -> new KeyState());
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parse the reset durations of the headers, such as "20ms", "1s" or "6m0s".
+     * @return -1 if the value is missing or malformed
+     */
+    static long parseDuration(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        Matcher matcher = DURATION.matcher(value.trim());
+        double millis = 0;
+        boolean found = false;
+        while (matcher.find()) {
+            found = true;
+            double amount = Double.parseDouble(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "h":
+                    millis += amount * 3_600_000;
+                    break;
+                case "m":
+                    millis += amount * 60_000;
+                    break;
+                case "s":
+                    millis += amount * 1_000;
+                    break;
+                default:
+                    millis += amount;
+            }
+        }
+        if (!found) {
+            long seconds = parseLong(value);
+            return seconds < 0 ? -1 : seconds * 1_000;
+        }
+        return (long) Math.ceil(millis);
+    }
+
+    /**
+     * Parse the Retry-After header, in seconds or as an http date.
+     * @return -1 if the value is missing or malformed
+     */
+    static long parseRetryAfter(Response response, long now) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        long seconds = parseLong(value);
+        if (seconds >= 0) {
+            return seconds * 1_000;
+        }
+        Date date = response.headers().getDate("Retry-After");
+        return date == null ? -1 : Math.max(0, date.getTime() - now);
+    }
+
+    private class KeyState {
+        double requestTokens = requestsPerMinute;
+        double tokenTokens = tokensPerMinute;
+        long lastRefill = System.currentTimeMillis();
+        volatile long blockedUntil;
+        int backoffCount;
+
+        synchronized long reserve(long now, int tokens) {
+            refill(now);
+            // the bucket may go negative, the debt is the time the caller waits for
+            long wait = Math.max(0, blockedUntil - now);
+            if (requestsPerMinute > 0) {
+                requestTokens -= 1;
+                wait = Math.max(wait, debtMillis(requestTokens, requestsPerMinute));
+            }
+            if (tokensPerMinute > 0) {
+                // a request larger than the bucket waits for a full bucket only
+                tokenTokens -= Math.min(tokens, tokensPerMinute);
+                wait = Math.max(wait, debtMillis(tokenTokens, tokensPerMinute));
+            }
+            return wait;
+        }
+
+        synchronized void update(long now, long remainingRequests, long resetRequests, long remainingTokens, long resetTokens) {
+            refill(now);
+            if (remainingRequests >= 0) {
+                requestTokens = Math.min(requestTokens, remainingRequests);
+                if (remainingRequests == 0 && resetRequests > 0) {
+                    blockedUntil = Math.max(blockedUntil, now + resetRequests);
+                }
+            }
+            if (remainingTokens >= 0) {
+                tokenTokens = Math.min(tokenTokens, remainingTokens);
+                if (remainingTokens == 0 && resetTokens > 0) {
+                    blockedUntil = Math.max(blockedUntil, now + resetTokens);
+                }
+            }
+        }
+
+        synchronized long block(long now, long delay) {
+            if (delay < 0) {
+                // exponential backoff, jittered over its upper half so the waiting callers spread out
+                long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(backoffCount, 16));
+                delay = cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+            }
+            backoffCount++;
+            blockedUntil = Math.max(blockedUntil, now + delay);
+            return blockedUntil - now;
+        }
+
+        synchronized void resetBackoff() {
+            backoffCount = 0;
+        }
+
+        private void refill(long now) {
+            long elapsed = now - lastRefill;
+            if (elapsed <= 0) {
+                return;
+            }
+            lastRefill = now;
+            if (requestsPerMinute > 0) {
+                requestTokens = Math.min(requestsPerMinute, requestTokens + (double) elapsed * requestsPerMinute / MINUTE_MILLIS);
+            }
+            if (tokensPerMinute > 0) {
+                tokenTokens = Math.min(tokensPerMinute, tokenTokens + (double) elapsed * tokensPerMinute / MINUTE_MILLIS);
+            }
+        }
+
+        private long debtMillis(double available, int perMinute) {
+            return available >= 0 ? 0 : (long) Math.ceil(-available * MINUTE_MILLIS / perMinute);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package zju.cst.aces.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import zju.cst.aces.dto.ChatMessage;
+import zju.cst.aces.dto.ChatResponse;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of the LLM responses, one json file per request named by the hash of the model,
+ * the temperature and the messages. The least recently used files are evicted over the size limit.
+ */
+public class ResponseCache {
+    public enum Mode {
+        /** do not cache */
+        OFF,
+        /** return the cached response, send the request and record the response on a miss */
+        READ_THROUGH,
+        /** always send the request and record the response */
+        RECORD,
+        /** only return cached responses, fail on a miss */
+        REPLAY
+    }
+
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+    private final Path cacheDir;
+    private final Mode mode;
+    private final long maxBytes;
+    private final AtomicLong totalBytes = new AtomicLong(0);
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+
+    /**
+     * @param maxBytes unbounded if <= 0
+     */
+    public ResponseCache(Path cacheDir, Mode mode, long maxBytes) throws IOException {
+        this.cacheDir = cacheDir;
+        this.mode = mode;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(cacheDir);
+        for (Path file : listFiles()) {
+            totalBytes.addAndGet(Files.size(file));
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public static String key(String model, double temperature, List<ChatMessage> chatMessages) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(GSON.toJson(new Object[]{model, temperature, chatMessages}).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("In ResponseCache.key: " + e);
+        }
+    }
+
+    /**
+     * Get the recorded response of the request.
+     * @return null on a miss, or if the mode does not read the cache
+     * @throws RuntimeException on a miss in replay mode
+     */
+    public ChatResponse get(String key) {
+        if (mode != Mode.READ_THROUGH && mode != Mode.REPLAY) {
+            return null;
+        }
+        Path file = getPath(key);
+        try {
+            if (Files.exists(file)) {
+                ChatResponse response = GSON.fromJson(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), ChatResponse.class);
+                if (response != null) {
+                    hitCount.incrementAndGet();
+                    // the modification time orders the files for eviction
+                    file.toFile().setLastModified(System.currentTimeMillis());
+                    return response;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (mode == Mode.REPLAY) {
+                throw new RuntimeException("In ResponseCache.get: failed to read recorded response " + file + ": " + e);
+            }
+        }
+        missCount.incrementAndGet();
+        if (mode == Mode.REPLAY) {
+            throw new RuntimeException("In ResponseCache.get: no recorded response for request " + key + " in replay mode");
+        }
+        return null;
+    }
+
+    /**
+     * Record the response of the request, if the mode writes the cache.
+     */
+    public void put(String key, ChatResponse response) {
+        if (response == null || (mode != Mode.READ_THROUGH && mode != Mode.RECORD)) {
+            return;
+        }
+        Path file = getPath(key);
+        try {
+            Files.createDirectories(file.getParent());
+            long oldSize = Files.exists(file) ? Files.size(file) : 0;
+            Path tmpFile = Files.createTempFile(file.getParent(), key, ".tmp");
+            try (OutputStreamWriter writer = new OutputStreamWriter(Files.newOutputStream(tmpFile), StandardCharsets.UTF_8)) {
+                writer.write(GSON.toJson(response));
+            }
+            long size = Files.size(tmpFile);
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+            if (maxBytes > 0 && totalBytes.addAndGet(size - oldSize) > maxBytes) {
+                evict();
+            }
+        } catch (IOException e) {
+            // a response that is not recorded is sent again next time
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public String getStats() {
+        return String.format("mode: %s, hits: %d, misses: %d, size: %d bytes", mode, getHitCount(), getMissCount(), totalBytes.get());
+    }
+
+    /**
+     * Remove the least recently used files until the cache is under 90% of the limit.
+     */
+    private synchronized void evict() throws IOException {
+        if (totalBytes.get() <= maxBytes) {
+            return;
+        }
+        List<Path> files = new ArrayList<>(listFiles());
+        files.sort(Comparator.comparingLong(f -> f.toFile().lastModified()));
+        long target = maxBytes / 10 * 9;
+        for (Path file : files) {
+            if (totalBytes.get() <= target) {
+                break;
+            }
+            long size = Files.size(file);
+            if (Files.deleteIfExists(file)) {
+                totalBytes.addAndGet(-size);
+            }
+        }
+    }
+
+    private List<Path> listFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(cacheDir)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(p -> p.toString().endsWith(".json"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path getPath(String key) {
+        return cacheDir.resolve(key.substring(0, 2)).resolve(key + ".json");
+    }
+}
@@ -0,0 +1,75 @@
+package zju.cst.aces.util;
+
+import com.knuddels.jtokkit.api.Encoding;
+import zju.cst.aces.api.config.Model;
+
+import java.util.List;
+
+/**
+ * Running token count of a prompt built section by section against a limit, each section is counted once
+ * when it is added instead of counting the whole prompt again.
+ */
+public class TokenBudget {
+    private final Model model;
+    private final int limit;
+    private int used;
+
+    public TokenBudget(Model model, int limit) {
+        this.model = model;
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getUsed() {
+        return used;
+    }
+
+    public int getRemaining() {
+        return Math.max(0, limit - used);
+    }
+
+    public boolean isExceeded() {
+        return used > limit;
+    }
+
+    /**
+     * Add the section whether it fits or not.
+     * @return the tokens of the section
+     */
+    public int add(String section) {
+        int tokens = TokenCounter.countToken(model, section);
+        used += tokens;
+        return tokens;
+    }
+
+    /**
+     * Add the section only if it fits in the remaining budget.
+     * @return true if it was added
+     */
+    public boolean tryAdd(String section) {
+        int tokens = TokenCounter.countToken(model, section);
+        if (used + tokens > limit) {
+            return false;
+        }
+        used += tokens;
+        return true;
+    }
+
+    /**
+     * Add the section cut to the remaining budget.
+     * @return the added text, empty if the budget is used up
+     */
+    public String addTruncated(String section) {
+        if (section == null || section.isEmpty()) {
+            return "";
+        }
+        Encoding encoding = TokenCounter.getEncoding(model);
+        List<Integer> tokens = encoding.encode(section);
+        int kept = Math.min(tokens.size(), getRemaining());
+        used += kept;
+        return kept == tokens.size() ? section : encoding.decode(tokens.subList(0, kept));
+    }
+}
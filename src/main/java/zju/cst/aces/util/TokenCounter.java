@@ -1,27 +1,104 @@
-package zju.cst.aces.util;
-
-import com.knuddels.jtokkit.Encodings;
-import com.knuddels.jtokkit.api.Encoding;
-import com.knuddels.jtokkit.api.EncodingRegistry;
-import com.knuddels.jtokkit.api.ModelType;
-
-/**
- * @Author volunze
- * @Date 2023/6/26 1:20
- * @ClassName: CountToken
- * @Description: count the number of tokens for openai models
- * @Version 1.0
- */
-public class TokenCounter {
-
-    public TokenCounter() {
-    }
-
-    public static int countToken(String error_message){
-        EncodingRegistry registry = Encodings.newDefaultEncodingRegistry();
-        // Get encoding for a specific model via string name
-        Encoding encoding = registry.getEncodingForModel(ModelType.GPT_3_5_TURBO);
-        int tokenCount = encoding.countTokens(error_message);
-        return tokenCount;
-    }
-}
+package zju.cst.aces.util;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingType;
+import zju.cst.aces.api.config.Model;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Author volunze
+ * @Date 2023/6/26 1:20
+ * @ClassName: CountToken
+ * @Description: count the number of tokens for openai models
+ * @Version 1.0
+ */
+public class TokenCounter {
+    private static final EncodingRegistry REGISTRY = Encodings.newDefaultEncodingRegistry();
+    private static final Map<Model, Encoding> ENCODINGS = new ConcurrentHashMap<>();
+    // counts of the long texts that are counted again, such as the stable context of the prompts
+    private static final int CACHE_MIN_LENGTH = 256;
+    private static final int CACHE_SIZE = 512;
+    private static final Map<String, Integer> COUNTS = new LinkedHashMap<String, Integer>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private static volatile Model defaultModel = Model.GPT_3_5_TURBO;
+
+    public TokenCounter() {
+    }
+
+    /**
+     * Set the model of the counts without a model, the model of the config.
+     */
+    public static void setDefaultModel(Model model) {
+        if (model != null && model != defaultModel) {
+            defaultModel = model;
+            synchronized (COUNTS) {
+                COUNTS.clear();
+            }
+        }
+    }
+
+    /**
+     * Get the encoding of the model, created once per model. Models unknown to the tokenizer use cl100k_base,
+     * the encoding of the gpt-3.5 and gpt-4 models.
+     */
+    public static Encoding getEncoding(Model model) {
+        return ENCODINGS.computeIfAbsent(model == null ? defaultModel : model,
+                m -> REGISTRY.getEncodingForModel(m.getModelName())
+                        .orElseGet(() -> REGISTRY.getEncoding(EncodingType.CL100K_BASE)));
+    }
+
+    public static int countToken(String error_message) {
+        if (error_message == null || error_message.isEmpty()) {
+            return 0;
+        }
+        if (error_message.length() < CACHE_MIN_LENGTH) {
+            return getEncoding(defaultModel).countTokens(error_message);
+        }
+        synchronized (COUNTS) {
+            Integer count = COUNTS.get(error_message);
+            if (count != null) {
+                return count;
+            }
+        }
+        int count = getEncoding(defaultModel).countTokens(error_message);
+        synchronized (COUNTS) {
+            COUNTS.put(error_message, count);
+        }
+        return count;
+    }
+
+    public static int countToken(Model model, String text) {
+        if (model == null || model == defaultModel) {
+            return countToken(text);
+        }
+        return text == null || text.isEmpty() ? 0 : getEncoding(model).countTokens(text);
+    }
+
+    /**
+     * Cut the text to at most maxTokens tokens, encoding it once.
+     */
+    public static String truncate(Model model, String text, int maxTokens) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+        if (maxTokens <= 0) {
+            return "";
+        }
+        Encoding encoding = getEncoding(model);
+        List<Integer> tokens = encoding.encode(text);
+        if (tokens.size() <= maxTokens) {
+            return text;
+        }
+        return encoding.decode(tokens.subList(0, maxTokens));
+    }
+}
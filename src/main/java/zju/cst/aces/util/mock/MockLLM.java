@@ -0,0 +1,290 @@
+package zju.cst.aces.util.mock;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Deterministic stand-in for an OpenAI-compatible chat completions api, for benchmarks without network or tokens.
+ * The latency, the 5xx errors and the 429s of a request are drawn from a random generator seeded by the seed and
+ * the request body, so a run with the same requests sees the same answers. The response is a JUnit test class for
+ * the focal class of the prompt, or a canned template.
+ * <p>
+ * Settings are given as a spec such as "latency=200,p95=800,errors=0.01,429=0.05,seed=42,response=/path/to.ftl".
+ */
+public class MockLLM {
+    public static final String URL_PREFIX = "mock:";
+    /** the url the requests are sent to when the stub is used in process, it is never resolved */
+    public static final String STUB_URL = "http://mock-llm.invalid/v1/chat/completions";
+
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    private static final Pattern FOCAL_CLASS = Pattern.compile("focal class `([\\w.$]+)`|in the class `([\\w.$]+)`");
+    private static final Pattern FOCAL_METHOD = Pattern.compile("focal method is `([\\w$]+)|testing the method `([\\w$]+)");
+    private static final String DEFAULT_RESPONSE = "```java\n"
+            + "import org.junit.jupiter.api.Test;\n"
+            + "import static org.junit.jupiter.api.Assertions.*;\n\n"
+            + "public class ${class_name}_${method_name}_Test {\n"
+            + "    @Test\n"
+            + "    public void test${method_name}() {\n"
+            + "        assertTrue(true);\n"
+            + "    }\n"
+            + "}\n"
+            + "```";
+
+    private final long latencyMillis;
+    private final long latencyP95Millis;
+    private final double errorRate;
+    private final double rateLimitRate;
+    private final long retryAfterSeconds;
+    private final long seed;
+    private final String responseTemplate;
+    private final Map<String, AtomicInteger> seen = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    private MockLLM(Map<String, String> settings) throws IOException {
+        this.latencyMillis = Long.parseLong(settings.getOrDefault("latency", "0"));
+        this.latencyP95Millis = Math.max(latencyMillis, Long.parseLong(settings.getOrDefault("p95", String.valueOf(latencyMillis))));
+        this.errorRate = Double.parseDouble(settings.getOrDefault("errors", "0"));
+        this.rateLimitRate = Double.parseDouble(settings.getOrDefault("429", "0"));
+        this.retryAfterSeconds = Long.parseLong(settings.getOrDefault("retryAfter", "1"));
+        this.seed = Long.parseLong(settings.getOrDefault("seed", "0"));
+        String responsePath = settings.get("response");
+        this.responseTemplate = responsePath == null ? DEFAULT_RESPONSE
+                : new String(Files.readAllBytes(Paths.get(responsePath)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Create the mock from a spec of comma separated key=value settings, with or without the "mock:" prefix:
+     * latency (median ms), p95 (ms, log-normal tail), errors (rate of 500), 429 (rate of 429), retryAfter (s),
+     * seed, and response (path of a template with ${class_name} and ${method_name}).
+     */
+    public static MockLLM of(String spec) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        String body = spec == null ? "" : spec.trim();
+        if (body.startsWith(URL_PREFIX)) {
+            body = body.substring(URL_PREFIX.length());
+        }
+        for (String entry : body.split(",")) {
+            int eq = entry.indexOf('=');
+            if (eq > 0) {
+                settings.put(entry.substring(0, eq).trim(), entry.substring(eq + 1).trim());
+            }
+        }
+        try {
+            return new MockLLM(settings);
+        } catch (IOException | NumberFormatException e) {
+            throw new RuntimeException("In MockLLM.of: invalid mock spec " + spec + ": " + e);
+        }
+    }
+
+    public static boolean isMockUrl(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    /**
+     * Answer a chat completions request body, the caller waits for {@link Reply#latencyMillis} before replying.
+     */
+    public Reply complete(String requestBody) {
+        requests.incrementAndGet();
+        // a request sent again, such as a retry, draws the next values of its sequence
+        String requestHash = hash(requestBody);
+        int occurrence = seen.computeIfAbsent(requestHash, k -> new AtomicInteger()).getAndIncrement();
+        Random random = new Random(seed * 31 + requestHash.hashCode() * 17L + occurrence);
+        long latency = sampleLatency(random);
+        double draw = random.nextDouble();
+        if (draw < rateLimitRate) {
+            rateLimited.incrementAndGet();
+            Reply reply = new Reply(429, error("Rate limit reached (mock)", "rate_limit_exceeded"), latency / 10);
+            reply.headers.put("Retry-After", String.valueOf(retryAfterSeconds));
+            reply.headers.put("x-ratelimit-remaining-requests", "0");
+            return reply;
+        }
+        if (draw < rateLimitRate + errorRate) {
+            errors.incrementAndGet();
+            return new Reply(500, error("Internal server error (mock)", "server_error"), latency);
+        }
+
+        JsonObject request = JsonParser.parseString(requestBody).getAsJsonObject();
+        String prompt = getPrompt(request);
+        int n = request.has("n") ? request.get("n").getAsInt() : 1;
+        String content = render(prompt);
+        int promptTokens = prompt.length() / 4;
+        int completionTokens = content.length() / 4;
+
+        JsonObject response = new JsonObject();
+        response.addProperty("id", "mock-" + requestHash.substring(0, 12) + "-" + occurrence);
+        response.addProperty("object", "chat.completion");
+        response.addProperty("created", 0);
+        response.addProperty("model", request.has("model") ? request.get("model").getAsString() : "mock");
+        JsonArray choices = new JsonArray();
+        for (int i = 0; i < Math.max(1, n); i++) {
+            JsonObject message = new JsonObject();
+            message.addProperty("role", "assistant");
+            message.addProperty("content", content);
+            JsonObject choice = new JsonObject();
+            choice.addProperty("index", i);
+            choice.add("message", message);
+            choice.addProperty("finish_reason", "stop");
+            choices.add(choice);
+        }
+        response.add("choices", choices);
+        JsonObject usage = new JsonObject();
+        usage.addProperty("prompt_tokens", promptTokens);
+        usage.addProperty("completion_tokens", completionTokens * Math.max(1, n));
+        usage.addProperty("total_tokens", promptTokens + completionTokens * Math.max(1, n));
+        response.add("usage", usage);
+
+        boolean stream = request.has("stream") && request.get("stream").getAsBoolean();
+        Reply reply = new Reply(200, stream ? toEvents(response, content) : GSON.toJson(response), latency);
+        reply.stream = stream;
+        return reply;
+    }
+
+    public String getStats() {
+        return String.format("requests: %d, 5xx: %d, 429: %d", requests.get(), errors.get(), rateLimited.get());
+    }
+
+    /**
+     * Log-normal latency with the median and p95 of the settings.
+     */
+    private long sampleLatency(Random random) {
+        if (latencyMillis <= 0) {
+            return 0;
+        }
+        double sigma = latencyP95Millis > latencyMillis ? Math.log((double) latencyP95Millis / latencyMillis) / 1.6449 : 0;
+        return Math.round(latencyMillis * Math.exp(sigma * random.nextGaussian()));
+    }
+
+    private String render(String prompt) {
+        String className = find(FOCAL_CLASS, prompt, "Mock");
+        className = className.substring(className.lastIndexOf('.') + 1);
+        String methodName = find(FOCAL_METHOD, prompt, "Method");
+        methodName = Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1);
+        return responseTemplate.replace("${class_name}", className).replace("${method_name}", methodName);
+    }
+
+    private static String find(Pattern pattern, String text, String defaultValue) {
+        Matcher matcher = pattern.matcher(text);
+        if (!matcher.find()) {
+            return defaultValue;
+        }
+        return matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+    }
+
+    private static String getPrompt(JsonObject request) {
+        StringBuilder sb = new StringBuilder();
+        if (request.has("messages")) {
+            for (JsonElement message : request.getAsJsonArray("messages")) {
+                JsonElement content = message.getAsJsonObject().get("content");
+                if (content != null && !content.isJsonNull()) {
+                    sb.append(content.getAsString()).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Split the response into server-sent events of a few lines each, ended by the usage and [DONE].
+     */
+    private static String toEvents(JsonObject response, String content) {
+        StringBuilder events = new StringBuilder();
+        String[] lines = content.split("(?<=\n)");
+        for (int i = 0; i < lines.length; i += 3) {
+            StringBuilder delta = new StringBuilder();
+            for (int j = i; j < Math.min(lines.length, i + 3); j++) {
+                delta.append(lines[j]);
+            }
+            JsonObject chunk = new JsonObject();
+            chunk.addProperty("id", response.get("id").getAsString());
+            chunk.addProperty("object", "chat.completion.chunk");
+            chunk.add("created", response.get("created"));
+            chunk.add("model", response.get("model"));
+            JsonObject deltaObject = new JsonObject();
+            if (i == 0) {
+                deltaObject.addProperty("role", "assistant");
+            }
+            deltaObject.addProperty("content", delta.toString());
+            JsonObject choice = new JsonObject();
+            choice.addProperty("index", 0);
+            choice.add("delta", deltaObject);
+            if (i + 3 >= lines.length) {
+                choice.addProperty("finish_reason", "stop");
+            }
+            JsonArray choices = new JsonArray();
+            choices.add(choice);
+            chunk.add("choices", choices);
+            events.append("data: ").append(GSON.toJson(chunk)).append("\n\n");
+        }
+        JsonObject usageChunk = new JsonObject();
+        usageChunk.addProperty("id", response.get("id").getAsString());
+        usageChunk.add("choices", new JsonArray());
+        usageChunk.add("usage", response.get("usage"));
+        events.append("data: ").append(GSON.toJson(usageChunk)).append("\n\n");
+        events.append("data: [DONE]\n\n");
+        return events.toString();
+    }
+
+    private static String error(String message, String type) {
+        JsonObject error = new JsonObject();
+        error.addProperty("message", message);
+        error.addProperty("type", type);
+        JsonObject body = new JsonObject();
+        body.add("error", error);
+        return GSON.toJson(body);
+    }
+
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest(text.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("In MockLLM.hash: " + e);
+        }
+    }
+
+    /**
+     * The answer to a request, sent after the latency.
+     */
+    public static class Reply {
+        public final int code;
+        public final String body;
+        public final long latencyMillis;
+        public final Map<String, String> headers = new LinkedHashMap<>();
+        public boolean stream;
+
+        Reply(int code, String body, long latencyMillis) {
+            this.code = code;
+            this.body = body;
+            this.latencyMillis = latencyMillis;
+        }
+
+        public String getContentType() {
+            return stream ? "text/event-stream" : "application/json";
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package zju.cst.aces.util.mock;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+
+/**
+ * In-process stub of the chat completions api, answers the requests to {@link MockLLM#STUB_URL} with the mock
+ * without any network, so the whole client side (rate limiter, key pool, retries, streaming) runs as with a server.
+ */
+public class MockLLMInterceptor implements Interceptor {
+    private static final String STUB_HOST = HttpUrl.get(MockLLM.STUB_URL).host();
+
+    private final MockLLM mock;
+
+    public MockLLMInterceptor(MockLLM mock) {
+        this.mock = mock;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!STUB_HOST.equals(request.url().host())) {
+            return chain.proceed(request);
+        }
+        Buffer buffer = new Buffer();
+        if (request.body() != null) {
+            request.body().writeTo(buffer);
+        }
+        MockLLM.Reply reply = mock.complete(buffer.readUtf8());
+        if (reply.latencyMillis > 0) {
+            try {
+                Thread.sleep(reply.latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("In MockLLMInterceptor.intercept: " + e);
+            }
+        }
+        if (chain.call().isCanceled()) {
+            throw new IOException("Canceled");
+        }
+        Response.Builder builder = new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(reply.code)
+                .message(reply.code == 200 ? "OK" : "Mock " + reply.code)
+                .body(ResponseBody.create(MediaType.parse(reply.getContentType()), reply.body));
+        for (Map.Entry<String, String> header : reply.headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,106 @@
+package zju.cst.aces.util.mock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Standalone OpenAI-compatible server answering POST /v1/chat/completions with the mock, to benchmark against
+ * a real http endpoint on a machine without network.
+ * <p>
+ * Usage: java zju.cst.aces.util.mock.MockLLMServer [port] [spec], e.g. 8000 "latency=200,p95=800,429=0.05"
+ */
+public class MockLLMServer {
+    public static final String PATH = "/v1/chat/completions";
+
+    private final MockLLM mock;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public MockLLMServer(int port, MockLLM mock) throws IOException {
+        this.mock = mock;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "MockLLMServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+        MockLLMServer server = new MockLLMServer(port, MockLLM.of(args.length > 1 ? args[1] : ""));
+        server.start();
+        System.out.println("Mock LLM server listening on " + server.getUrl());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    public MockLLM getMock() {
+        return mock;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            MockLLM.Reply reply = mock.complete(readBody(exchange.getRequestBody()));
+            if (reply.latencyMillis > 0) {
+                Thread.sleep(reply.latencyMillis);
+            }
+            byte[] body = reply.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", reply.getContentType());
+            for (Map.Entry<String, String> header : reply.headers.entrySet()) {
+                exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+            }
+            exchange.sendResponseHeaders(reply.code, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            byte[] body = ("{\"error\":{\"message\":\"" + e.getClass().getSimpleName() + "\"}}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(400, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,159 @@
+package zju.cst.aces.util.testpilot;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the code snippets of the Markdown documentation of a project, by the names of the methods they call.
+ * The documentation is read once and the index is saved, a lookup is then one map access. The saved index is used
+ * again while the size and modification time of every Markdown file are the same.
+ */
+public class SnippetIndex {
+    public static final String INDEX_FILE = "snippetIndex.json";
+    private static final Pattern CODE_BLOCK = Pattern.compile("(?s)```.*?\\n(.*?)```");
+    private static final Pattern CALL = Pattern.compile("\\b(\\w+)\\(");
+    /** directories that never hold the documentation of the project */
+    private static final Set<String> SKIPPED_DIRS = Collections.singleton("node_modules");
+
+    /** size and modification time of each Markdown file, by path */
+    private Map<String, String> files = new TreeMap<>();
+    private List<String> snippets = new ArrayList<>();
+    /** ids of the snippets calling each method name */
+    private Map<String, List<Integer>> calls = new TreeMap<>();
+
+    private SnippetIndex() {
+    }
+
+    /**
+     * Load the saved index of the directory, or build and save it if a Markdown file changed.
+     */
+    public static SnippetIndex open(Path baseDir, Path indexPath, Gson gson) throws IOException {
+        Map<String, String> mdFiles = findMdFiles(baseDir);
+        if (Files.exists(indexPath)) {
+            SnippetIndex saved = gson.fromJson(new String(Files.readAllBytes(indexPath), StandardCharsets.UTF_8), SnippetIndex.class);
+            if (saved != null && mdFiles.equals(saved.files)) {
+                return saved;
+            }
+        }
+        SnippetIndex index = build(mdFiles);
+        Files.createDirectories(indexPath.getParent());
+        try (OutputStreamWriter writer = new OutputStreamWriter(Files.newOutputStream(indexPath), StandardCharsets.UTF_8)) {
+            writer.write(gson.toJson(index));
+        }
+        return index;
+    }
+
+    /**
+     * Build the index of the directory without saving it.
+     */
+    public static SnippetIndex build(Path baseDir) throws IOException {
+        return build(findMdFiles(baseDir));
+    }
+
+    /**
+     * Get the snippets that call the method, in the order of the files.
+     */
+    public List<String> getSnippets(String methodName) {
+        List<Integer> ids = calls.get(methodName);
+        if (ids == null) {
+            return new ArrayList<>();
+        }
+        List<String> result = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            result.add(snippets.get(id));
+        }
+        return result;
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    public int getSnippetCount() {
+        return snippets.size();
+    }
+
+    private static SnippetIndex build(Map<String, String> mdFiles) {
+        SnippetIndex index = new SnippetIndex();
+        index.files = mdFiles;
+        for (String mdFile : mdFiles.keySet()) {
+            for (String snippet : findCodeSnippets(Paths.get(mdFile))) {
+                int id = index.snippets.size();
+                index.snippets.add(snippet);
+                Set<String> methodNames = new LinkedHashSet<>();
+                Matcher matcher = CALL.matcher(snippet);
+                while (matcher.find()) {
+                    methodNames.add(matcher.group(1));
+                }
+                for (String methodName : methodNames) {
+                    index.calls.computeIfAbsent(methodName, k -> new ArrayList<>()).add(id);
+                }
+            }
+        }
+        return index;
+    }
+
+    private static Map<String, String> findMdFiles(Path baseDir) throws IOException {
+        Map<String, String> mdFiles = new TreeMap<>();
+        if (!Files.isDirectory(baseDir)) {
+            return mdFiles;
+        }
+        Files.walkFileTree(baseDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+                if (!dir.equals(baseDir) && (name.startsWith(".") || SKIPPED_DIRS.contains(name))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && file.toString().endsWith(".md")) {
+                    mdFiles.put(file.toString(), attrs.size() + ":" + attrs.lastModifiedTime().toMillis());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return mdFiles;
+    }
+
+    private static Set<String> findCodeSnippets(Path file) {
+        Set<String> snippets = new LinkedHashSet<>();
+        try {
+            String content = new String(Files.readAllBytes(file));
+            // Match code blocks in markdown, capturing blocks regardless of language specified
+            Matcher matcher = CODE_BLOCK.matcher(content);
+            while (matcher.find()) {
+                snippets.add(matcher.group(1));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return snippets;
+    }
+}
@@ -0,0 +1 @@
+Write a complete unit test for the focal method above with JUnit 5 and Mockito, ensuring to cover all branches. No additional explanations required.
@@ -0,0 +1,13 @@
+I need you to fix an error in a unit test of the focal method above, an error occurred while compiling and executing
+
+The unit test is:
+```
+${unit_test}
+```
+
+The error chatMessage is:
+```
+${error_message}
+```
+
+Please fix the error and return the whole fixed unit test. You can use Junit 5, Mockito 3 and reflection. No explanation is needed.